@@ -1,20 +1,40 @@
 package com.qrpdfmanager;
 
+import com.qrpdfmanager.config.BulkProcessingConfig;
 import com.qrpdfmanager.config.FileStorageConfig;
+import com.qrpdfmanager.config.ImagePoolConfig;
+import com.qrpdfmanager.config.SchedulingConfig;
+import com.qrpdfmanager.config.StampingConfig;
+import com.qrpdfmanager.config.StreamingConfig;
+import com.qrpdfmanager.config.WarmUpConfig;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 
 @SpringBootApplication
+@EnableScheduling
 @EnableConfigurationProperties({
-        FileStorageConfig.class
+        FileStorageConfig.class,
+        WarmUpConfig.class,
+        ImagePoolConfig.class,
+        StampingConfig.class,
+        StreamingConfig.class,
+        SchedulingConfig.class,
+        BulkProcessingConfig.class
 })
 
 public class QrPdfManagerApplication {
 
     public static void main(String[] args) {
-        SpringApplication.run(QrPdfManagerApplication.class, args);
+        ConfigurableApplicationContext context = SpringApplication.run(QrPdfManagerApplication.class, args);
+        
+        // Bulk mode has no web server to keep running; exit with its result once the runner is done
+        if (context.getEnvironment().getProperty("bulk.enabled", Boolean.class, false)) {
+            System.exit(SpringApplication.exit(context));
+        }
     }
 
 }
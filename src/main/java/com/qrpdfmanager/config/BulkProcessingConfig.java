@@ -0,0 +1,27 @@
+package com.qrpdfmanager.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@ConfigurationProperties(prefix = "bulk")
+@Getter
+@Setter
+public class BulkProcessingConfig {
+    private boolean enabled;
+    private String inputDir;
+    private String outputDir;
+    private Mode mode = Mode.SPLIT;
+    // Files processed at the same time, 0 means one per available processor
+    private int parallelism;
+    // Tenant the pages are scheduled under, so a backfill can share a node with live traffic
+    private String tenantId = "bulk";
+
+    public enum Mode {
+        // Write a stamped copy of every PDF to the output directory
+        STAMP,
+        // Decode and split every PDF or scan into a session under the output directory
+        SPLIT
+    }
+}
@@ -1,5 +1,7 @@
 package com.qrpdfmanager.config;
 
+import java.time.Duration;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 import lombok.Getter;
@@ -12,5 +14,9 @@ public class FileStorageConfig {
     private String uploadDir;
     private String tempDir;
     private int maxFileSize;
+    private long maxUploadSize;
+    // Chunked uploads without a new chunk for this long are discarded
+    private Duration uploadExpiry = Duration.ofHours(1);
     private String allowedFileTypes;
+    private boolean compactSplitPages;
 }
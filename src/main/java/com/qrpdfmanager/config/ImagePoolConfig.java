@@ -0,0 +1,13 @@
+package com.qrpdfmanager.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@ConfigurationProperties(prefix = "image-pool")
+@Getter
+@Setter
+public class ImagePoolConfig {
+    private long maxRetainedBytes = 256L * 1024 * 1024;
+}
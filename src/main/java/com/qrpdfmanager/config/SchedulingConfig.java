@@ -0,0 +1,26 @@
+package com.qrpdfmanager.config;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@ConfigurationProperties(prefix = "scheduling")
+@Getter
+@Setter
+public class SchedulingConfig {
+    // Pages processed at the same time across all tenants, 0 means one per available processor
+    private int maxConcurrentPages;
+    // Pages one tenant may have in progress at the same time, 0 means no limit beyond the global one
+    private int maxConcurrentPagesPerTenant;
+    // Tenants scheduled under their own id; any other id shares the queue of the "default" tenant
+    private Set<String> tenants = new HashSet<>();
+    // Relative share of each tenant when pages are waiting, tenants not listed get a weight of 1.
+    // Tenants given a weight are scheduled under their own id as well
+    private Map<String, Integer> tenantWeights = new HashMap<>();
+}
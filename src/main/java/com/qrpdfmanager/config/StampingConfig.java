@@ -0,0 +1,18 @@
+package com.qrpdfmanager.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@ConfigurationProperties(prefix = "stamping")
+@Getter
+@Setter
+public class StampingConfig {
+    // Pages per shard at most: a document is split into ceil(pages / shardMaxPages) shards. When that exceeds
+    // parallelism there is one shard per worker and shards grow past this size. Documents up to this many pages
+    // (or any document with one worker) stay on the calling thread
+    private int shardMaxPages = 200;
+    // Worker threads for stamping shards, 0 means one per available processor
+    private int parallelism;
+}
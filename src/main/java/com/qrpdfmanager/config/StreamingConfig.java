@@ -0,0 +1,14 @@
+package com.qrpdfmanager.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@ConfigurationProperties(prefix = "streaming")
+@Getter
+@Setter
+public class StreamingConfig {
+    // Streamed uploads processed at the same time; further uploads are rejected until one finishes
+    private int maxConcurrentUploads = 32;
+}
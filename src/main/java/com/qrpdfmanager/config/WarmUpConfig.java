@@ -0,0 +1,14 @@
+package com.qrpdfmanager.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@ConfigurationProperties(prefix = "warmup")
+@Getter
+@Setter
+public class WarmUpConfig {
+    private boolean enabled;
+    private int iterations = 3;
+}
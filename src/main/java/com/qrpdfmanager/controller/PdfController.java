@@ -1,7 +1,11 @@
 package com.qrpdfmanager.controller;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.InputStreamResource;
@@ -9,23 +13,48 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.qrpdfmanager.exception.FileStorageException;
 import com.qrpdfmanager.model.ApiResponse;
 import com.qrpdfmanager.model.PageInfo;
+import com.qrpdfmanager.model.UploadStatus;
+import com.qrpdfmanager.service.ChunkedUploadService;
+import com.qrpdfmanager.service.FairPageScheduler;
 import com.qrpdfmanager.service.QrCodeService;
 
 @RestController
 @RequestMapping("/api/pdf")
 public class PdfController {
 
+    // Pages of different tenants are scheduled fairly against each other; ids that are not configured
+    // in scheduling.tenants or scheduling.tenant-weights share the default tenant, see FairPageScheduler
+    private static final String TENANT_HEADER = "X-Tenant-Id";
+    private static final String DEFAULT_TENANT = FairPageScheduler.DEFAULT_TENANT;
+    // Rejects ids that could not be configured tenants anyway, before they reach logs
+    private static final Pattern TENANT_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
     @Autowired
     private QrCodeService qrCodeService;
 
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @PostMapping("/download")
     public ResponseEntity<?> downloadPdfWithQrCodes(@RequestParam("file") MultipartFile file) {
         if (file.isEmpty()) {
@@ -56,7 +85,8 @@ public class PdfController {
     
 
     @PostMapping("/upload")
-    public ResponseEntity<?> uploadPdfWithQrCodes(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<?> uploadPdfWithQrCodes(@RequestParam("file") MultipartFile file,
+                                                  @RequestHeader(value = TENANT_HEADER, defaultValue = DEFAULT_TENANT) String tenantId) {
         if (file.isEmpty()) {
             return ResponseEntity.badRequest()
                     .body(ApiResponse.error("Please upload a PDF file"));
@@ -67,8 +97,13 @@ public class PdfController {
                     .body(ApiResponse.error("Only PDF files are supported"));
         }
         
+        if (!TENANT_ID_PATTERN.matcher(tenantId).matches()) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error("Invalid tenant id"));
+        }
+        
         try {
-            List<PageInfo> pageInfoList = qrCodeService.processPdfWithQrCodes(file);
+            List<PageInfo> pageInfoList = qrCodeService.processPdfWithQrCodes(file, tenantId);
             
             return ResponseEntity.ok()
                     .body(ApiResponse.success("PDF processed successfully", pageInfoList));
@@ -77,4 +112,227 @@ public class PdfController {
                     .body(ApiResponse.error("Failed to process PDF: " + e.getMessage()));
         }
     }
+    
+
+    @PostMapping("/upload/scan")
+    public ResponseEntity<?> uploadScanWithQrCodes(@RequestParam("file") MultipartFile file,
+                                                   @RequestHeader(value = TENANT_HEADER, defaultValue = DEFAULT_TENANT) String tenantId) {
+        if (file.isEmpty()) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error("Please upload a scanned image file"));
+        }
+        
+        if (!TENANT_ID_PATTERN.matcher(tenantId).matches()) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error("Invalid tenant id"));
+        }
+        
+        try {
+            List<PageInfo> pageInfoList = qrCodeService.processScanWithQrCodes(file, tenantId);
+            
+            return ResponseEntity.ok()
+                    .body(ApiResponse.success("Scan processed successfully", pageInfoList));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Failed to process scan: " + e.getMessage()));
+        }
+    }
+    
+
+    /**
+     * Streams a "page" event for every page as soon as it has been decoded and stored, followed by
+     * a single "summary" event, so downstream systems can start on early pages right away.
+     */
+    @PostMapping(value = "/upload/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter uploadPdfWithQrCodesStreaming(@RequestParam("file") MultipartFile file,
+                                                    @RequestHeader(value = TENANT_HEADER, defaultValue = DEFAULT_TENANT) String tenantId) {
+        // Processing a long document can take minutes, so the emitter must not time out
+        SseEmitter emitter = new SseEmitter(0L);
+        
+        if (file.isEmpty()) {
+            sendErrorAndComplete(emitter, "Please upload a PDF file");
+            return emitter;
+        }
+        
+        if (!file.getContentType().equals("application/pdf")) {
+            sendErrorAndComplete(emitter, "Only PDF files are supported");
+            return emitter;
+        }
+        
+        if (!TENANT_ID_PATTERN.matcher(tenantId).matches()) {
+            sendErrorAndComplete(emitter, "Invalid tenant id");
+            return emitter;
+        }
+        
+        try {
+            qrCodeService.processPdfWithQrCodesAsync(file, tenantId, pageInfo -> {
+                try {
+                    emitter.send(SseEmitter.event().name("page").data(pageInfo, MediaType.APPLICATION_JSON));
+                } catch (IOException e) {
+                    // Client went away - abort processing of the remaining pages
+                    throw new UncheckedIOException(e);
+                }
+            }).whenComplete((summary, error) -> {
+                if (error != null) {
+                    Throwable cause = error.getCause() != null ? error.getCause() : error;
+                    sendErrorAndComplete(emitter, "Failed to process PDF: " + cause.getMessage());
+                    return;
+                }
+                try {
+                    emitter.send(SseEmitter.event().name("summary").data(summary, MediaType.APPLICATION_JSON));
+                    emitter.complete();
+                } catch (IOException e) {
+                    emitter.completeWithError(e);
+                }
+            });
+        } catch (Exception e) {
+            sendErrorAndComplete(emitter, "Failed to process PDF: " + e.getMessage());
+        }
+        
+        return emitter;
+    }
+    
+
+    @GetMapping("/sessions/{sessionId}/pages")
+    public ResponseEntity<?> listSessionPages(@PathVariable String sessionId) {
+        try {
+            List<PageInfo> pageInfoList = qrCodeService.listSessionPages(sessionId);
+            
+            return ResponseEntity.ok()
+                    .body(ApiResponse.success("Session pages", pageInfoList));
+        } catch (FileStorageException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(ApiResponse.error(e.getMessage()));
+        }
+    }
+    
+
+    /**
+     * Rebuilds a session into one PDF in decoded page order. Unknown pages are appended at the end
+     * unless includeUnknown=false; they can be listed separately through the pages endpoint.
+     */
+    @GetMapping("/sessions/{sessionId}/document")
+    public ResponseEntity<StreamingResponseBody> reassembleSession(@PathVariable String sessionId,
+                                                                   @RequestParam(value = "includeUnknown", defaultValue = "true") boolean includeUnknown) {
+        try {
+            // Resolve the session up front so a bad id gets a proper status instead of a broken download
+            qrCodeService.listSessionPages(sessionId);
+        } catch (FileStorageException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(outputStream -> objectMapper.writeValue(outputStream, ApiResponse.error(e.getMessage())));
+        }
+        
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_PDF);
+        headers.setContentDispositionFormData("attachment", "document_" + sessionId + ".pdf");
+        
+        return ResponseEntity.ok()
+                .headers(headers)
+                .body(outputStream -> qrCodeService.reassembleSession(sessionId, includeUnknown, outputStream));
+    }
+    
+
+    @PostMapping("/uploads")
+    public ResponseEntity<?> createChunkedUpload(@RequestParam("fileName") String fileName,
+                                                 @RequestParam("size") long size) {
+        try {
+            UploadStatus status = chunkedUploadService.createUpload(fileName, size);
+            
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .body(ApiResponse.success("Upload created", status));
+        } catch (FileStorageException e) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error(e.getMessage()));
+        }
+    }
+    
+
+    @GetMapping("/uploads/{uploadId}")
+    public ResponseEntity<?> getChunkedUploadStatus(@PathVariable String uploadId) {
+        try {
+            return ResponseEntity.ok()
+                    .body(ApiResponse.success("Upload status", chunkedUploadService.getStatus(uploadId)));
+        } catch (FileStorageException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(ApiResponse.error(e.getMessage()));
+        }
+    }
+    
+
+    @PutMapping(value = "/uploads/{uploadId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadChunk(@PathVariable String uploadId,
+                                         @RequestParam("offset") long offset,
+                                         InputStream chunk) {
+        try {
+            UploadStatus status = chunkedUploadService.writeChunk(uploadId, offset, chunk);
+            
+            return ResponseEntity.ok()
+                    .body(ApiResponse.success("Chunk stored", status));
+        } catch (FileStorageException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(ApiResponse.error(e.getMessage()));
+        }
+    }
+    
+
+    @PostMapping("/uploads/{uploadId}/complete")
+    public ResponseEntity<?> completeChunkedUpload(@PathVariable String uploadId,
+                                                   @RequestParam(value = "sha256", required = false) String sha256,
+                                                   @RequestHeader(value = TENANT_HEADER, defaultValue = DEFAULT_TENANT) String tenantId) {
+        if (!TENANT_ID_PATTERN.matcher(tenantId).matches()) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error("Invalid tenant id"));
+        }
+        
+        try {
+            chunkedUploadService.getStatus(uploadId);
+        } catch (FileStorageException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(ApiResponse.error(e.getMessage()));
+        }
+        
+        // Missing bytes or a checksum mismatch: the client has to resend or start over
+        String uploadedFile;
+        try {
+            uploadedFile = chunkedUploadService.finishUpload(uploadId, sha256);
+        } catch (FileStorageException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(ApiResponse.error(e.getMessage()));
+        }
+        
+        try {
+            List<PageInfo> pageInfoList = chunkedUploadService.processUpload(uploadedFile, tenantId);
+            
+            return ResponseEntity.ok()
+                    .body(ApiResponse.success("Upload processed successfully", pageInfoList));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Failed to process upload: " + e.getMessage()));
+        }
+    }
+    
+
+    @DeleteMapping("/uploads/{uploadId}")
+    public ResponseEntity<?> cancelChunkedUpload(@PathVariable String uploadId) {
+        try {
+            chunkedUploadService.cancelUpload(uploadId);
+            
+            return ResponseEntity.ok()
+                    .body(ApiResponse.success("Upload cancelled", null));
+        } catch (FileStorageException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(ApiResponse.error(e.getMessage()));
+        }
+    }
+    
+
+    private void sendErrorAndComplete(SseEmitter emitter, String message) {
+        try {
+            emitter.send(SseEmitter.event().name("error").data(ApiResponse.error(message), MediaType.APPLICATION_JSON));
+            emitter.complete();
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+    }
 }
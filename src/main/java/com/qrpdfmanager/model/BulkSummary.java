@@ -0,0 +1,26 @@
+package com.qrpdfmanager.model;
+
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BulkSummary {
+    private String mode;
+    private int totalFiles;
+    private int processedFiles;
+    private int skippedFiles;
+    private int failedFiles;
+    private long processedPages;
+    private long elapsedMillis;
+    private double filesPerSecond;
+    private double pagesPerSecond;
+    // Input file (relative to the input directory) to error message
+    private Map<String, String> failures;
+    // Input file (relative to the input directory) to the session it was split into, empty when stamping
+    private Map<String, String> sessions;
+}
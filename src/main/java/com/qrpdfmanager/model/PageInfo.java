@@ -10,4 +10,5 @@ import lombok.NoArgsConstructor;
 public class PageInfo {
     private int pageIndex;
     private String filePath;
+    private long decodeTimeMillis;
 }
@@ -0,0 +1,16 @@
+package com.qrpdfmanager.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProcessingSummary {
+    private String sessionId;
+    private int totalPages;
+    private int decodedPages;
+    private int unknownPages;
+    private long elapsedMillis;
+}
@@ -0,0 +1,15 @@
+package com.qrpdfmanager.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UploadStatus {
+    private String uploadId;
+    private String fileName;
+    private long totalSize;
+    private long receivedBytes;
+}
@@ -0,0 +1,306 @@
+package com.qrpdfmanager.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.qrpdfmanager.config.BulkProcessingConfig;
+import com.qrpdfmanager.exception.FileStorageException;
+import com.qrpdfmanager.model.BulkSummary;
+import com.qrpdfmanager.model.ProcessingSummary;
+import com.qrpdfmanager.util.ScanImageUtil;
+
+/**
+ * Runs the stamping or decode-and-split pipeline over every file below bulk.input-dir without going
+ * through HTTP. Enabled by the "bulk" profile, which also turns the web server off.
+ *
+ * Each finished file is appended to a checkpoint journal in the output directory, and a rerun skips
+ * everything recorded there, so a crashed backfill resumes where it stopped. Stamped copies are moved
+ * into place only when complete. A split records its session in the journal before the first page is
+ * written, so a rerun deletes the partial session of an interrupted file before splitting it again.
+ */
+@Service
+@ConditionalOnProperty(prefix = "bulk", name = "enabled", havingValue = "true")
+public class BulkProcessingService implements ApplicationRunner, ExitCodeGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkProcessingService.class);
+
+    private static final String CHECKPOINT_FILE = ".bulk-checkpoint";
+    private static final String SUMMARY_FILE = "bulk-summary.json";
+    private static final String PROGRESS_SUFFIX = ".part";
+    // Journal records are tab separated: status, input file relative to the input directory, session id
+    private static final String STARTED = "started";
+    private static final String DONE = "done";
+
+    @Autowired
+    private BulkProcessingConfig bulkProcessingConfig;
+
+    @Autowired
+    private QrCodeService qrCodeService;
+
+    @Autowired
+    private ScanImageUtil scanImageUtil;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private int exitCode;
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        if (bulkProcessingConfig.getInputDir() == null || bulkProcessingConfig.getOutputDir() == null) {
+            throw new FileStorageException("bulk.input-dir and bulk.output-dir must both be set");
+        }
+
+        Path inputDir = Paths.get(bulkProcessingConfig.getInputDir()).toAbsolutePath().normalize();
+        Path outputDir = Paths.get(bulkProcessingConfig.getOutputDir()).toAbsolutePath().normalize();
+        if (!Files.isDirectory(inputDir)) {
+            throw new FileStorageException("Input directory not found " + inputDir);
+        }
+        Files.createDirectories(outputDir);
+
+        long startTime = System.currentTimeMillis();
+        List<Path> inputFiles = listInputFiles(inputDir, outputDir);
+        Path checkpointFile = outputDir.resolve(CHECKPOINT_FILE);
+        Checkpoint journal = readCheckpoint(checkpointFile);
+        deleteStaleSessions(journal);
+
+        List<Path> pending = inputFiles.stream()
+                .filter(file -> !journal.completed.containsKey(relativeName(inputDir, file)))
+                .collect(Collectors.toList());
+        log.info("Bulk {}: {} files in {}, {} already done, {} to process",
+                bulkProcessingConfig.getMode(), inputFiles.size(), inputDir, inputFiles.size() - pending.size(), pending.size());
+
+        AtomicInteger processedFiles = new AtomicInteger();
+        AtomicLong processedPages = new AtomicLong();
+        Map<String, String> failures = new TreeMap<>();
+        Map<String, String> sessions = new TreeMap<>();
+        journal.completed.forEach((name, sessionId) -> {
+            if (sessionId != null) {
+                sessions.put(name, sessionId);
+            }
+        });
+
+        int parallelism = bulkProcessingConfig.getParallelism() > 0
+                ? bulkProcessingConfig.getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try (Writer checkpoint = new OutputStreamWriter(new FileOutputStream(checkpointFile.toFile(), true), StandardCharsets.UTF_8)) {
+            List<Future<?>> futures = new ArrayList<>(pending.size());
+            for (Path file : pending) {
+                String name = relativeName(inputDir, file);
+                futures.add(executor.submit(() -> {
+                    String sessionId = null;
+                    try {
+                        int pages;
+                        if (bulkProcessingConfig.getMode() == BulkProcessingConfig.Mode.STAMP) {
+                            pages = stampFile(file, outputDir.resolve(name));
+                        } else {
+                            Path sessionDir = Paths.get(fileStorageService.createSessionDirectory());
+                            sessionId = sessionDir.getFileName().toString();
+                            recordCheckpoint(checkpoint, STARTED, name, sessionId);
+                            pages = splitFile(file, sessionDir);
+                        }
+                        processedPages.addAndGet(pages);
+                        processedFiles.incrementAndGet();
+                        recordCheckpoint(checkpoint, DONE, name, sessionId);
+                        if (sessionId != null) {
+                            synchronized (sessions) {
+                                sessions.put(name, sessionId);
+                            }
+                        }
+                    } catch (Exception e) {
+                        log.warn("Bulk processing failed for {}: {}", name, e.getMessage());
+                        synchronized (failures) {
+                            failures.put(name, String.valueOf(e.getMessage()));
+                        }
+                        if (sessionId != null) {
+                            deleteSession(name, sessionId);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileStorageException("Bulk processing was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new FileStorageException("Bulk processing failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - startTime);
+        BulkSummary summary = new BulkSummary(bulkProcessingConfig.getMode().name(), inputFiles.size(),
+                processedFiles.get(), inputFiles.size() - pending.size(), failures.size(), processedPages.get(),
+                elapsedMillis, processedFiles.get() * 1000.0 / elapsedMillis, processedPages.get() * 1000.0 / elapsedMillis,
+                failures, sessions);
+        objectMapper.writeValue(outputDir.resolve(SUMMARY_FILE).toFile(), summary);
+
+        log.info("Bulk {} finished in {} ms: {} processed, {} skipped, {} failed, {} pages ({} pages/s)",
+                summary.getMode(), elapsedMillis, summary.getProcessedFiles(), summary.getSkippedFiles(),
+                summary.getFailedFiles(), summary.getProcessedPages(), String.format("%.1f", summary.getPagesPerSecond()));
+        exitCode = failures.isEmpty() ? 0 : 1;
+    }
+
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Returns the number of pages in the file.
+     */
+    private int stampFile(Path inputFile, Path outputFile) throws IOException {
+        byte[] pdfBytes = Files.readAllBytes(inputFile);
+        byte[] stampedPdf = qrCodeService.generateQrCodesForPdf(pdfBytes);
+        int pages = qrCodeService.countPages(pdfBytes);
+
+        // Written next to the target and moved into place, so a crash never leaves a truncated copy
+        Files.createDirectories(outputFile.getParent());
+        Path partFile = outputFile.resolveSibling(outputFile.getFileName() + PROGRESS_SUFFIX);
+        Files.write(partFile, stampedPdf);
+        Files.move(partFile, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return pages;
+    }
+
+    /**
+     * Returns the number of pages in the file.
+     */
+    private int splitFile(Path inputFile, Path sessionDir) {
+        File file = inputFile.toFile();
+        String tenantId = bulkProcessingConfig.getTenantId();
+        ProcessingSummary summary = isPdf(inputFile)
+                ? qrCodeService.processPdfWithQrCodes(file, sessionDir, tenantId, pageInfo -> { })
+                : qrCodeService.processScanWithQrCodes(file, sessionDir, tenantId, pageInfo -> { });
+        return summary.getTotalPages();
+    }
+
+    /**
+     * Deletes the sessions of splits that were started but never finished, by a crash or a failure.
+     */
+    private void deleteStaleSessions(Checkpoint journal) {
+        journal.started.forEach((name, sessionIds) -> {
+            String completedSession = journal.completed.get(name);
+            for (String sessionId : sessionIds) {
+                if (!sessionId.equals(completedSession)) {
+                    deleteSession(name, sessionId);
+                }
+            }
+        });
+    }
+
+    private void deleteSession(String name, String sessionId) {
+        try {
+            if (fileStorageService.deleteSessionDirectory(sessionId)) {
+                log.info("Deleted partial session {} of {}", sessionId, name);
+            }
+        } catch (FileStorageException e) {
+            log.warn("Could not delete partial session {} of {}: {}", sessionId, name, e.getMessage());
+        }
+    }
+
+    private List<Path> listInputFiles(Path inputDir, Path outputDir) throws IOException {
+        boolean stamping = bulkProcessingConfig.getMode() == BulkProcessingConfig.Mode.STAMP;
+        try (Stream<Path> files = Files.walk(inputDir)) {
+            return files
+                    // An output directory inside the input directory must not be fed back in
+                    .filter(file -> Files.isRegularFile(file) && !file.startsWith(outputDir))
+                    .filter(file -> isPdf(file) || (!stamping && scanImageUtil.isSupportedScan(file.getFileName().toString())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Checkpoint readCheckpoint(Path checkpointFile) throws IOException {
+        Checkpoint journal = new Checkpoint();
+        if (!Files.exists(checkpointFile)) {
+            return journal;
+        }
+
+        String[] lines = new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8).split("\n", -1);
+        // The last element is empty unless a crash cut the final line short; that file is processed again
+        for (int i = 0; i < lines.length - 1; i++) {
+            String[] fields = lines[i].split("\t", -1);
+            if (fields.length < 2) {
+                continue;
+            }
+            String sessionId = fields.length > 2 && !fields[2].isEmpty() ? fields[2] : null;
+            if (fields[0].equals(DONE)) {
+                journal.completed.put(fields[1], sessionId);
+            } else if (fields[0].equals(STARTED) && sessionId != null) {
+                journal.started.computeIfAbsent(fields[1], name -> new HashSet<>()).add(sessionId);
+            }
+        }
+        return journal;
+    }
+
+    private void recordCheckpoint(Writer checkpoint, String status, String name, String sessionId) throws IOException {
+        synchronized (checkpoint) {
+            checkpoint.write(status);
+            checkpoint.write('\t');
+            checkpoint.write(name);
+            if (sessionId != null) {
+                checkpoint.write('\t');
+                checkpoint.write(sessionId);
+            }
+            checkpoint.write('\n');
+            checkpoint.flush();
+        }
+    }
+
+    private String relativeName(Path inputDir, Path file) {
+        // Forward slashes keep the checkpoint usable when a backfill is resumed on another platform
+        return inputDir.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private boolean isPdf(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".pdf");
+    }
+
+
+    private static final class Checkpoint {
+        // Input file to its session id, null for stamped files
+        private final Map<String, String> completed = new HashMap<>();
+        // Input file to the sessions its splits were started in, across all earlier runs
+        private final Map<String, Set<String>> started = new HashMap<>();
+    }
+}
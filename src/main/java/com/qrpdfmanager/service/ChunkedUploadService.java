@@ -0,0 +1,254 @@
+package com.qrpdfmanager.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.qrpdfmanager.config.FileStorageConfig;
+import com.qrpdfmanager.exception.FileStorageException;
+import com.qrpdfmanager.model.PageInfo;
+import com.qrpdfmanager.model.UploadStatus;
+import com.qrpdfmanager.util.ScanImageUtil;
+
+@Service
+public class ChunkedUploadService {
+
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private QrCodeService qrCodeService;
+
+    @Autowired
+    private FileStorageConfig fileStorageConfig;
+
+    @Autowired
+    private ScanImageUtil scanImageUtil;
+
+    private final Map<String, UploadState> uploads = new ConcurrentHashMap<>();
+
+
+    public UploadStatus createUpload(String fileName, long totalSize) {
+        if (totalSize <= 0) {
+            throw new FileStorageException("Upload size must be positive");
+        }
+        if (totalSize > fileStorageConfig.getMaxUploadSize()) {
+            throw new FileStorageException("Upload size exceeds the limit of " + fileStorageConfig.getMaxUploadSize() + " bytes");
+        }
+        
+        Path tempFile = fileStorageService.createTemporaryFile(fileName);
+        try {
+            UploadState state = new UploadState(UUID.randomUUID().toString(), fileName, totalSize, tempFile);
+            uploads.put(state.uploadId, state);
+            return state.toStatus();
+        } catch (IOException e) {
+            fileStorageService.deleteFile(tempFile.toString());
+            throw new FileStorageException("Could not open temporary file for upload", e);
+        }
+    }
+
+
+    public UploadStatus getStatus(String uploadId) {
+        UploadState state = getState(uploadId);
+        synchronized (state) {
+            return state.toStatus();
+        }
+    }
+
+
+    /**
+     * Writes a chunk at the given offset. Chunks must extend the contiguous prefix received so far;
+     * re-sending an already received range is allowed so a client can resume after a dropped
+     * connection without knowing exactly how much of its last chunk arrived. The resent part of
+     * such a range is ignored, only the bytes beyond the prefix are stored.
+     */
+    public UploadStatus writeChunk(String uploadId, long offset, InputStream chunk) {
+        UploadState state = getState(uploadId);
+        synchronized (state) {
+            if (offset < 0 || offset > state.receivedBytes) {
+                throw new FileStorageException("Chunk offset " + offset + " does not match received bytes " + state.receivedBytes);
+            }
+            
+            try {
+                ReadableByteChannel source = Channels.newChannel(chunk);
+                ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+                long position = offset;
+                
+                while (source.read(buffer) != -1) {
+                    buffer.flip();
+                    if (position + buffer.remaining() > state.totalSize) {
+                        throw new FileStorageException("Chunk exceeds declared upload size of " + state.totalSize + " bytes");
+                    }
+                    
+                    // Retransmitted bytes below the contiguous prefix are skipped rather than rewritten, so the
+                    // file always holds exactly the bytes the digest was computed over
+                    long alreadyReceived = Math.min(buffer.remaining(), state.receivedBytes - position);
+                    if (alreadyReceived > 0) {
+                        buffer.position(buffer.position() + (int) alreadyReceived);
+                        position += alreadyReceived;
+                    }
+                    
+                    ByteBuffer fresh = buffer.duplicate();
+                    while (buffer.hasRemaining()) {
+                        position += state.channel.write(buffer, position);
+                    }
+                    state.digest.update(fresh);
+                    state.receivedBytes = Math.max(state.receivedBytes, position);
+                    buffer.clear();
+                }
+                
+                state.lastActivityMillis = System.currentTimeMillis();
+                return state.toStatus();
+            } catch (IOException e) {
+                throw new FileStorageException("Could not write chunk for upload " + uploadId, e);
+            }
+        }
+    }
+
+
+    /**
+     * Checks that every byte arrived and matches the checksum, then closes the upload and returns the
+     * assembled file. Failures here are the client's to fix; processing comes separately in processUpload.
+     */
+    public String finishUpload(String uploadId, String expectedSha256) {
+        UploadState state = getState(uploadId);
+        synchronized (state) {
+            if (state.receivedBytes != state.totalSize) {
+                throw new FileStorageException("Upload is incomplete: received " + state.receivedBytes + " of " + state.totalSize + " bytes");
+            }
+            
+            String actualSha256 = toHex(state.digest.digest());
+            if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(actualSha256)) {
+                abort(state);
+                throw new FileStorageException("Checksum mismatch for upload " + uploadId);
+            }
+            
+            try {
+                state.channel.force(false);
+                state.channel.close();
+            } catch (IOException e) {
+                abort(state);
+                throw new FileStorageException("Could not finalize upload " + uploadId, e);
+            }
+            uploads.remove(uploadId);
+            return state.file.toString();
+        }
+    }
+
+
+    /**
+     * Processes a file returned by finishUpload and deletes it afterwards.
+     */
+    public List<PageInfo> processUpload(String tempFilePath, String tenantId) {
+        // The assembled file is handed to PDFBox or the scan reader directly; it is never read back into
+        // memory as a whole. Temporary files keep the extension of the uploaded name
+        File uploadedFile = new File(tempFilePath);
+        try {
+            return scanImageUtil.isSupportedScan(uploadedFile.getName())
+                    ? qrCodeService.processScanWithQrCodes(uploadedFile, tenantId)
+                    : qrCodeService.processPdfWithQrCodes(uploadedFile, tenantId);
+        } finally {
+            fileStorageService.deleteFile(tempFilePath);
+        }
+    }
+
+
+    public void cancelUpload(String uploadId) {
+        UploadState state = getState(uploadId);
+        synchronized (state) {
+            abort(state);
+        }
+    }
+
+
+    /**
+     * Aborts uploads that have not received a chunk within file.upload-expiry, releasing their file
+     * handle and temporary file. Clients that drop off for good never call complete or cancel.
+     */
+    @Scheduled(fixedDelayString = "${file.upload-sweep-interval:60000}")
+    public void expireStaleUploads() {
+        long expiredBefore = System.currentTimeMillis() - fileStorageConfig.getUploadExpiry().toMillis();
+        for (UploadState state : uploads.values()) {
+            synchronized (state) {
+                if (state.lastActivityMillis < expiredBefore && uploads.containsKey(state.uploadId)) {
+                    abort(state);
+                }
+            }
+        }
+    }
+
+
+    private void abort(UploadState state) {
+        uploads.remove(state.uploadId);
+        try {
+            state.channel.close();
+        } catch (IOException e) {
+            // Ignore - the file is deleted below
+        }
+        fileStorageService.deleteFile(state.file.toString());
+    }
+
+    private UploadState getState(String uploadId) {
+        UploadState state = uploads.get(uploadId);
+        if (state == null) {
+            throw new FileStorageException("Unknown upload " + uploadId);
+        }
+        return state;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+
+    private static class UploadState {
+        private final String uploadId;
+        private final String fileName;
+        private final long totalSize;
+        private final Path file;
+        private final FileChannel channel;
+        private final MessageDigest digest;
+        private long receivedBytes;
+        private long lastActivityMillis = System.currentTimeMillis();
+
+        UploadState(String uploadId, String fileName, long totalSize, Path file) throws IOException {
+            this.uploadId = uploadId;
+            this.fileName = fileName;
+            this.totalSize = totalSize;
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                channel.close();
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+
+        UploadStatus toStatus() {
+            return new UploadStatus(uploadId, fileName, totalSize, receivedBytes);
+        }
+    }
+}
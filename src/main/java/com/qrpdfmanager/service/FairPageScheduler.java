@@ -0,0 +1,228 @@
+package com.qrpdfmanager.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qrpdfmanager.config.SchedulingConfig;
+import com.qrpdfmanager.exception.FileStorageException;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Admits page work in weighted fair order across tenants. Every page of every document asks for a
+ * slot before it is rendered and decoded, so a tenant with a few pages waits behind at most one
+ * in-flight page of a large job instead of behind the whole job. Pages run on the caller's thread,
+ * which keeps each PDDocument on the thread that opened it.
+ *
+ * Ordering is start-time fair queuing: each waiting page is tagged with
+ * max(virtual time, tenant's previous tag) + 1 / weight, and the free slot goes to the smallest tag
+ * among tenants under their concurrency cap. Idle tenants build up no credit.
+ *
+ * Tenant ids arrive unauthenticated, so only configured tenants get a queue and meters of their own;
+ * every other id is scheduled as the default tenant. This bounds memory and metric cardinality, and a
+ * client cannot escape its share or cap by sending a fresh id with each request.
+ */
+@Service
+public class FairPageScheduler {
+
+    public static final String DEFAULT_TENANT = "default";
+
+    // Package-private so tests can hold it to line up a grant with an interrupt
+    final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, TenantQueue> tenants = new HashMap<>();
+    private final int maxConcurrentPages;
+    private final int maxConcurrentPagesPerTenant;
+    private final Map<String, Integer> tenantWeights;
+    private final Set<String> knownTenants = new HashSet<>();
+    private final MeterRegistry meterRegistry;
+
+    private int activePages;
+    private double virtualTime;
+
+    @Autowired
+    public FairPageScheduler(SchedulingConfig schedulingConfig, MeterRegistry meterRegistry) {
+        this.maxConcurrentPages = schedulingConfig.getMaxConcurrentPages() > 0
+                ? schedulingConfig.getMaxConcurrentPages()
+                : Runtime.getRuntime().availableProcessors();
+        this.maxConcurrentPagesPerTenant = schedulingConfig.getMaxConcurrentPagesPerTenant() > 0
+                ? schedulingConfig.getMaxConcurrentPagesPerTenant()
+                : this.maxConcurrentPages;
+        this.tenantWeights = schedulingConfig.getTenantWeights();
+        this.knownTenants.addAll(schedulingConfig.getTenants());
+        this.knownTenants.addAll(tenantWeights.keySet());
+        this.knownTenants.add(DEFAULT_TENANT);
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("qrpdf.scheduler.queue.depth.total", this, FairPageScheduler::getQueueDepth)
+                .description("Pages waiting for a processing slot across all tenants")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs one page of work for the tenant on the calling thread once the tenant's turn has come.
+     */
+    public <T> T runPage(String tenantId, Supplier<T> page) {
+        TenantQueue tenant = acquire(resolveTenant(tenantId));
+        try {
+            return page.get();
+        } finally {
+            release(tenant);
+        }
+    }
+
+    public void runPage(String tenantId, Runnable page) {
+        runPage(tenantId, () -> {
+            page.run();
+            return null;
+        });
+    }
+
+    /**
+     * Returns the id a page of the given tenant is scheduled under: the id itself for configured
+     * tenants, the default tenant for anything else.
+     */
+    public String resolveTenant(String tenantId) {
+        return tenantId != null && knownTenants.contains(tenantId) ? tenantId : DEFAULT_TENANT;
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return tenants.values().stream().mapToInt(tenant -> tenant.waiting.size()).sum();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private TenantQueue acquire(String tenantId) {
+        long enqueuedAt = System.nanoTime();
+        lock.lock();
+        try {
+            TenantQueue tenant = tenants.computeIfAbsent(tenantId, this::createTenantQueue);
+            double startTag = Math.max(virtualTime, tenant.lastTag);
+            tenant.lastTag = startTag + 1.0 / tenant.weight;
+            Ticket ticket = new Ticket(startTag, lock.newCondition());
+            tenant.waiting.addLast(ticket);
+
+            dispatch();
+            try {
+                while (!ticket.granted) {
+                    ticket.turn.await();
+                }
+            } catch (InterruptedException e) {
+                if (ticket.granted) {
+                    // Granted while being interrupted: hand the slot on before giving up
+                    releaseLocked(tenant);
+                } else {
+                    tenant.waiting.remove(ticket);
+                }
+                Thread.currentThread().interrupt();
+                throw new FileStorageException("Interrupted while waiting for a processing slot", e);
+            }
+
+            tenant.waitTimer.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+            return tenant;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(TenantQueue tenant) {
+        lock.lock();
+        try {
+            releaseLocked(tenant);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseLocked(TenantQueue tenant) {
+        activePages--;
+        tenant.activePages--;
+        dispatch();
+    }
+
+    /**
+     * Grants free slots to the waiting pages with the smallest tags. Tenants are few, so a linear
+     * scan per grant is cheaper than keeping a priority queue consistent with the per-tenant caps.
+     */
+    private void dispatch() {
+        while (activePages < maxConcurrentPages) {
+            TenantQueue next = null;
+            for (TenantQueue tenant : tenants.values()) {
+                if (tenant.waiting.isEmpty() || tenant.activePages >= maxConcurrentPagesPerTenant) {
+                    continue;
+                }
+                if (next == null || tenant.waiting.peekFirst().startTag < next.waiting.peekFirst().startTag) {
+                    next = tenant;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+
+            Ticket ticket = next.waiting.pollFirst();
+            virtualTime = Math.max(virtualTime, ticket.startTag);
+            activePages++;
+            next.activePages++;
+            ticket.granted = true;
+            ticket.turn.signal();
+        }
+    }
+
+    private TenantQueue createTenantQueue(String tenantId) {
+        TenantQueue tenant = new TenantQueue(Math.max(1, tenantWeights.getOrDefault(tenantId, 1)));
+
+        // Read without the lock: a slightly stale value is fine for monitoring
+        Gauge.builder("qrpdf.scheduler.queue.depth", tenant, queue -> queue.waiting.size())
+                .description("Pages waiting for a processing slot")
+                .tag("tenant", tenantId)
+                .register(meterRegistry);
+        Gauge.builder("qrpdf.scheduler.active.pages", tenant, queue -> queue.activePages)
+                .description("Pages currently being processed")
+                .tag("tenant", tenantId)
+                .register(meterRegistry);
+        tenant.waitTimer = Timer.builder("qrpdf.scheduler.wait")
+                .description("Time a page waited for a processing slot")
+                .tag("tenant", tenantId)
+                .register(meterRegistry);
+        return tenant;
+    }
+
+
+    private static final class TenantQueue {
+        private final int weight;
+        private final Deque<Ticket> waiting = new ArrayDeque<>();
+        private int activePages;
+        private double lastTag;
+        private Timer waitTimer;
+
+        TenantQueue(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private static final class Ticket {
+        private final double startTag;
+        private final Condition turn;
+        private boolean granted;
+
+        Ticket(double startTag, Condition turn) {
+            this.startTag = startTag;
+            this.turn = turn;
+        }
+    }
+}
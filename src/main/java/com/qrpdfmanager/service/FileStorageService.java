@@ -6,7 +6,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
 import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -15,6 +18,7 @@ import org.springframework.web.multipart.MultipartFile;
 
 import com.qrpdfmanager.config.FileStorageConfig;
 import com.qrpdfmanager.exception.FileStorageException;
+import com.qrpdfmanager.util.ScanImageUtil;
 
 @Service
 public class FileStorageService {
@@ -22,6 +26,9 @@ public class FileStorageService {
     private final Path fileStorageLocation;
     private final Path tempStorageLocation;
 
+    @Autowired
+    private ScanImageUtil scanImageUtil;
+
     @Autowired
     public FileStorageService(FileStorageConfig fileStorageConfig) {
         this.fileStorageLocation = Paths.get(fileStorageConfig.getUploadDir())
@@ -38,6 +45,16 @@ public class FileStorageService {
     }
 
     public String storeFileTemporary(MultipartFile file) {
+        return storeTemporary(file, this::isPdf, "Only PDF files are supported");
+    }
+
+
+    public String storeScanTemporary(MultipartFile file) {
+        return storeTemporary(file, scanImageUtil::isSupportedScan, "Only TIFF, PNG, JPEG and ZIP scans are supported");
+    }
+
+
+    private String storeTemporary(MultipartFile file, Predicate<String> isAllowedType, String unsupportedTypeMessage) {
         // Normalize file name
         String originalFileName = StringUtils.cleanPath(file.getOriginalFilename());
         String fileExtension = getFileExtension(originalFileName);
@@ -49,9 +66,8 @@ public class FileStorageService {
                 throw new FileStorageException("Filename contains invalid path sequence " + originalFileName);
             }
 
-            // Check if the file is a PDF
-            if (!fileExtension.equalsIgnoreCase(".pdf")) {
-                throw new FileStorageException("Only PDF files are supported");
+            if (!isAllowedType.test(originalFileName)) {
+                throw new FileStorageException(unsupportedTypeMessage);
             }
 
             // Copy file to the target location (Replacing existing file with the same name)
@@ -65,6 +81,28 @@ public class FileStorageService {
     }
 
 
+    public Path createTemporaryFile(String originalFileName) {
+        String cleanFileName = StringUtils.cleanPath(originalFileName);
+        String fileExtension = getFileExtension(cleanFileName);
+        
+        if (cleanFileName.contains("..")) {
+            throw new FileStorageException("Filename contains invalid path sequence " + cleanFileName);
+        }
+        
+        // Scans are accepted too, since large multi-page TIFF and ZIP scans need the resumable path as much as PDFs
+        if (!isPdf(cleanFileName) && !scanImageUtil.isSupportedScan(cleanFileName)) {
+            throw new FileStorageException("Only PDF files and TIFF, PNG, JPEG and ZIP scans are supported");
+        }
+        
+        Path targetLocation = this.tempStorageLocation.resolve(UUID.randomUUID().toString() + fileExtension);
+        try {
+            return Files.createFile(targetLocation);
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not create temporary file for " + cleanFileName, ex);
+        }
+    }
+
+
     public String createPageDirectory(int pageIndex) {
         String sessionId = UUID.randomUUID().toString();
         Path pageDir = this.fileStorageLocation.resolve("page_" + pageIndex);
@@ -90,6 +128,10 @@ public class FileStorageService {
     }
 
 
+    private boolean isPdf(String fileName) {
+        return getFileExtension(fileName).equalsIgnoreCase(".pdf");
+    }
+    
     private String getFileExtension(String fileName) {
         if (fileName == null) {
             return "";
@@ -110,6 +152,44 @@ public class FileStorageService {
         }
     }
     
+    public Path getSessionDirectory(String sessionId) {
+        Path sessionDir = resolveSessionDirectory(sessionId);
+        if (!Files.isDirectory(sessionDir)) {
+            throw new FileStorageException("Session not found " + sessionId);
+        }
+        return sessionDir;
+    }
+    
+    /**
+     * Deletes a session with all its pages. Returns false when there was no such session.
+     */
+    public boolean deleteSessionDirectory(String sessionId) {
+        Path sessionDir = resolveSessionDirectory(sessionId);
+        if (!Files.exists(sessionDir)) {
+            return false;
+        }
+        
+        // Deepest paths first, so every directory is empty by the time it is deleted
+        try (Stream<Path> paths = Files.walk(sessionDir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+            return true;
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not delete session " + sessionId, ex);
+        }
+    }
+    
+    private Path resolveSessionDirectory(String sessionId) {
+        // Session ids are always UUIDs, which also keeps the lookup inside the upload directory
+        try {
+            UUID.fromString(sessionId);
+        } catch (IllegalArgumentException ex) {
+            throw new FileStorageException("Invalid session id " + sessionId);
+        }
+        return this.fileStorageLocation.resolve(sessionId);
+    }
+    
     public void deleteFile(String filePath) {
         try {
             Files.deleteIfExists(Paths.get(filePath));
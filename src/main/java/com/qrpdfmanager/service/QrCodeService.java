@@ -3,117 +3,451 @@ package com.qrpdfmanager.service;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.qrpdfmanager.config.StampingConfig;
+import com.qrpdfmanager.config.StreamingConfig;
 import com.qrpdfmanager.exception.FileStorageException;
 import com.qrpdfmanager.exception.QrCodeException;
 import com.qrpdfmanager.model.PageInfo;
+import com.qrpdfmanager.model.ProcessingSummary;
+import com.qrpdfmanager.util.ImageBufferPool;
 import com.qrpdfmanager.util.PdfUtil;
 import com.qrpdfmanager.util.QrCodeUtil;
+import com.qrpdfmanager.util.ScanImageUtil;
 
 @Service
 public class QrCodeService {
 
+    // Directory names written by processPage: page_<decoded index> or page_unknown_<source index>
+    private static final Pattern PAGE_DIRECTORY_PATTERN = Pattern.compile("page_(unknown_)?(\\d+)");
+
     @Autowired
     private QrCodeUtil qrCodeUtil;
     
     @Autowired
     private PdfUtil pdfUtil;
     
+    @Autowired
+    private ScanImageUtil scanImageUtil;
+    
+    @Autowired
+    private ImageBufferPool imageBufferPool;
+    
     @Autowired
     private FileStorageService fileStorageService;
     
+    @Autowired
+    private FairPageScheduler fairPageScheduler;
+    
+    @Autowired
+    private StampingConfig stampingConfig;
+    
+    @Autowired
+    private StreamingConfig streamingConfig;
+    
     private final ObjectMapper objectMapper = new ObjectMapper();
     
+    // Both are kept private rather than beans so they do not replace Boot's applicationTaskExecutor
+    private ExecutorService stampingExecutor;
+    private int stampingParallelism;
+    private ExecutorService streamingExecutor;
+    
+    @PostConstruct
+    void startStampingExecutor() {
+        stampingParallelism = stampingConfig.getParallelism() > 0
+                ? stampingConfig.getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        stampingExecutor = Executors.newFixedThreadPool(stampingParallelism, runnable -> {
+            Thread thread = new Thread(runnable, "qr-stamping-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Streamed uploads spend most of their time waiting for page slots from the fair scheduler, so they
+     * get their own threads instead of queueing behind other work on applicationTaskExecutor. Uploads
+     * beyond streaming.max-concurrent-uploads are rejected rather than queued, so a client never waits
+     * minutes for its first page event without knowing why.
+     */
+    @PostConstruct
+    void startStreamingExecutor() {
+        int maxConcurrentUploads = streamingConfig.getMaxConcurrentUploads();
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrentUploads, maxConcurrentUploads,
+                60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "qr-streaming-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        streamingExecutor = executor;
+    }
+    
+    @PreDestroy
+    void stopExecutors() {
+        stampingExecutor.shutdownNow();
+        streamingExecutor.shutdownNow();
+    }
+    
 
     public byte[] generateQrCodesForPdf(MultipartFile pdfFile) {
         try {
             String tempFilePath = fileStorageService.storeFileTemporary(pdfFile);
             byte[] pdfBytes = Files.readAllBytes(Paths.get(tempFilePath));
             
-            try (ByteArrayInputStream bais = new ByteArrayInputStream(pdfBytes)) {
-                int numberOfPages = countPages(pdfBytes);
-                
-                byte[][] qrCodes = new byte[numberOfPages][];
-                for (int i = 0; i < numberOfPages; i++) {
-                    Map<String, Object> pageInfo = new HashMap<>();
-                    pageInfo.put("pageIndex", i);
-                    String pageInfoJson = objectMapper.writeValueAsString(pageInfo);
-                    
-                    qrCodes[i] = qrCodeUtil.generateQrCode(pageInfoJson);
-                }
-                
-                byte[] modifiedPdf = pdfUtil.embedQrCodesIntoPdf(new ByteArrayInputStream(pdfBytes), qrCodes);
-                
-                fileStorageService.deleteFile(tempFilePath);
+            byte[] modifiedPdf = generateQrCodesForPdf(pdfBytes);
+            
+            fileStorageService.deleteFile(tempFilePath);
+            
+            return modifiedPdf;
+        } catch (IOException e) {
+            throw new FileStorageException("Failed to process PDF file", e);
+        }
+    }
+    
+
+    public byte[] generateQrCodesForPdf(byte[] pdfBytes) {
+        int numberOfPages = countPages(pdfBytes);
+        int shardMaxPages = Math.max(1, stampingConfig.getShardMaxPages());
+        int shardCount = Math.min(stampingParallelism, (numberOfPages + shardMaxPages - 1) / shardMaxPages);
+        
+        if (shardCount < 2) {
+            // A single shard is encoded on the calling thread; it still skips the PNG round trip per page
+            try (PdfUtil.QrCodeShard shard = pdfUtil.encodeQrCodeShard(0, numberOfPages,
+                    pageIndex -> qrCodeUtil.generateQrCodeImage(createPageInfoJson(pageIndex)))) {
+                return pdfUtil.embedQrCodeShardsIntoPdf(new ByteArrayInputStream(pdfBytes), List.of(shard));
+            } catch (IOException e) {
+                throw new FileStorageException("Failed to stamp PDF", e);
+            }
+        }
+        
+        return generateQrCodesInShards(pdfBytes, numberOfPages, shardCount);
+    }
+    
+
+    /**
+     * Generates and encodes the QR codes of contiguous page ranges in parallel, then stitches the
+     * encoded images onto the original document on the calling thread, in page order.
+     */
+    private byte[] generateQrCodesInShards(byte[] pdfBytes, int numberOfPages, int shardCount) {
+        List<Future<PdfUtil.QrCodeShard>> futures = new ArrayList<>(shardCount);
+        List<PdfUtil.QrCodeShard> shards = new ArrayList<>(shardCount);
+        try {
+            for (int shard = 0; shard < shardCount; shard++) {
+                int firstPageIndex = (int) ((long) numberOfPages * shard / shardCount);
+                int pageCount = (int) ((long) numberOfPages * (shard + 1) / shardCount) - firstPageIndex;
                 
-                return modifiedPdf;
+                futures.add(stampingExecutor.submit(() -> pdfUtil.encodeQrCodeShard(firstPageIndex, pageCount,
+                        pageIndex -> qrCodeUtil.generateQrCodeImage(createPageInfoJson(pageIndex)))));
+            }
+            for (Future<PdfUtil.QrCodeShard> future : futures) {
+                shards.add(future.get());
+            }
+            
+            return pdfUtil.embedQrCodeShardsIntoPdf(new ByteArrayInputStream(pdfBytes), shards);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileStorageException("Interrupted while stamping PDF", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new FileStorageException("Failed to stamp PDF", e.getCause());
+        } finally {
+            for (Future<PdfUtil.QrCodeShard> future : futures) {
+                future.cancel(true);
             }
+            // Closes the scratch documents of every shard that completed, including after a failure
+            for (Future<PdfUtil.QrCodeShard> future : futures) {
+                closeQuietly(future);
+            }
+        }
+    }
+    
+
+    private void closeQuietly(Future<PdfUtil.QrCodeShard> future) {
+        try {
+            if (future.isDone() && !future.isCancelled()) {
+                future.get().close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | IOException e) {
+            // Already reported by the stamping path, or nothing left to release
+        }
+    }
+    
+
+    private String createPageInfoJson(int pageIndex) {
+        try {
+            Map<String, Object> pageInfo = new HashMap<>();
+            pageInfo.put("pageIndex", pageIndex);
+            return objectMapper.writeValueAsString(pageInfo);
         } catch (IOException e) {
             throw new FileStorageException("Failed to process PDF file", e);
         }
     }
     
 
-    public List<PageInfo> processPdfWithQrCodes(MultipartFile pdfFile) {
+    public List<PageInfo> processPdfWithQrCodes(MultipartFile pdfFile, String tenantId) {
+        String tempFilePath = fileStorageService.storeFileTemporary(pdfFile);
         try {
-            String tempFilePath = fileStorageService.storeFileTemporary(pdfFile);
-            byte[] pdfBytes = Files.readAllBytes(Paths.get(tempFilePath));
-            
-            List<BufferedImage> qrCodeImages = pdfUtil.extractQrCodesFromPdf(pdfBytes);
-            List<PageInfo> pageInfoList = new ArrayList<>();
-            
-            String sessionDir = fileStorageService.createSessionDirectory();
-            
-            for (int i = 0; i < qrCodeImages.size(); i++) {
+            return processPdfWithQrCodes(new File(tempFilePath), tenantId);
+        } finally {
+            fileStorageService.deleteFile(tempFilePath);
+        }
+    }
+    
+
+    public List<PageInfo> processPdfWithQrCodes(File pdfFile, String tenantId) {
+        List<PageInfo> pageInfoList = new ArrayList<>();
+        processPdfWithQrCodes(pdfFile, tenantId, pageInfoList::add);
+        return pageInfoList;
+    }
+    
+
+    /**
+     * Stages the upload and processes it on the streaming executor, passing each page to the listener as
+     * soon as it has been decoded and saved. The multipart file is copied before returning because
+     * it is no longer readable once the request thread has been released.
+     */
+    public CompletableFuture<ProcessingSummary> processPdfWithQrCodesAsync(MultipartFile pdfFile, String tenantId,
+                                                                          Consumer<PageInfo> pageListener) {
+        String tempFilePath = fileStorageService.storeFileTemporary(pdfFile);
+        try {
+            return CompletableFuture.supplyAsync(() -> {
                 try {
-                    String qrCodeContent = qrCodeUtil.readQrCode(qrCodeImages.get(i));
-                    
-                    Map<String, Object> pageInfoMap = objectMapper.readValue(qrCodeContent, Map.class);
-                    int pageIndex = (int) pageInfoMap.get("pageIndex");
-                    
-                    String pageDir = Paths.get(sessionDir, "page_" + pageIndex).toString();
-                    Files.createDirectories(Paths.get(pageDir));
-                    
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    pdfUtil.extractPageFromPdf(pdfBytes, i, baos);
-                    
-                    String pagePath = fileStorageService.savePage(baos.toByteArray(), pageDir, pageIndex);
-                    
-                    pageInfoList.add(new PageInfo(pageIndex, pagePath));
-                } catch (QrCodeException e) {
-                    String pageDir = Paths.get(sessionDir, "page_unknown_" + i).toString();
-                    Files.createDirectories(Paths.get(pageDir));
-                    
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    pdfUtil.extractPageFromPdf(pdfBytes, i, baos);
-                    
-                    String pagePath = fileStorageService.savePage(baos.toByteArray(), pageDir, i);
-                    pageInfoList.add(new PageInfo(-1, pagePath)); // Use -1 to indicate unknown index
+                    return processPdfWithQrCodes(new File(tempFilePath), tenantId, pageListener);
+                } finally {
+                    fileStorageService.deleteFile(tempFilePath);
                 }
-            }
-            
+            }, streamingExecutor);
+        } catch (RejectedExecutionException e) {
+            fileStorageService.deleteFile(tempFilePath);
+            throw new FileStorageException("Too many streamed uploads in progress, try again later", e);
+        } catch (RuntimeException e) {
             fileStorageService.deleteFile(tempFilePath);
+            throw e;
+        }
+    }
+    
+
+    /**
+     * Each page is rendered, decoded and stored under a slot from the fair page scheduler, so pages
+     * of different tenants interleave instead of one large document holding the CPU until it is done.
+     */
+    public ProcessingSummary processPdfWithQrCodes(File pdfFile, String tenantId, Consumer<PageInfo> pageListener) {
+        return processPdfWithQrCodes(pdfFile, Paths.get(fileStorageService.createSessionDirectory()), tenantId, pageListener);
+    }
+    
+
+    /**
+     * Splits into a session directory created beforehand, for callers that record the session id
+     * before any page is written.
+     */
+    public ProcessingSummary processPdfWithQrCodes(File pdfFile, Path sessionDirectory, String tenantId,
+            Consumer<PageInfo> pageListener) {
+        long startTime = System.currentTimeMillis();
+        String sessionDir = sessionDirectory.toString();
+        int[] counts = new int[2]; // decoded, unknown
+        PageInfo[] processedPage = new PageInfo[1];
+        
+        pdfUtil.extractQrCodesFromPdf(pdfFile, (sourceIndex, qrCodeImage) -> {
+            processedPage[0] = processPage(sessionDir, sourceIndex, qrCodeImage,
+                    outputStream -> pdfUtil.extractPageFromPdf(pdfFile, sourceIndex, outputStream));
+        }, page -> {
+            fairPageScheduler.runPage(tenantId, page);
             
-            return pageInfoList;
+            // Reported after the slot is released, so a slow listener does not hold up other tenants
+            PageInfo pageInfo = processedPage[0];
+            counts[pageInfo.getPageIndex() >= 0 ? 0 : 1]++;
+            pageListener.accept(pageInfo);
+        });
+        
+        return new ProcessingSummary(Paths.get(sessionDir).getFileName().toString(),
+                counts[0] + counts[1], counts[0], counts[1], System.currentTimeMillis() - startTime);
+    }
+    
+
+    public List<PageInfo> processScanWithQrCodes(MultipartFile scanFile, String tenantId) {
+        String tempFilePath = fileStorageService.storeScanTemporary(scanFile);
+        try {
+            return processScanWithQrCodes(new File(tempFilePath), tenantId);
+        } finally {
+            fileStorageService.deleteFile(tempFilePath);
+        }
+    }
+    
+
+    public List<PageInfo> processScanWithQrCodes(File scanFile, String tenantId) {
+        List<PageInfo> pageInfoList = new ArrayList<>();
+        processScanWithQrCodes(scanFile, tenantId, pageInfoList::add);
+        return pageInfoList;
+    }
+    
+
+    /**
+     * Same session layout as the PDF path, but QR codes are decoded from the scanned pixels and each
+     * frame is stored as a single-page PDF, so nothing is wrapped in a PDF just to be rendered again.
+     */
+    public ProcessingSummary processScanWithQrCodes(File scanFile, String tenantId, Consumer<PageInfo> pageListener) {
+        return processScanWithQrCodes(scanFile, Paths.get(fileStorageService.createSessionDirectory()), tenantId, pageListener);
+    }
+    
+
+    public ProcessingSummary processScanWithQrCodes(File scanFile, Path sessionDirectory, String tenantId,
+            Consumer<PageInfo> pageListener) {
+        long startTime = System.currentTimeMillis();
+        String sessionDir = sessionDirectory.toString();
+        int[] counts = new int[2]; // decoded, unknown
+        
+        scanImageUtil.readFrames(scanFile, (sourceIndex, frame) -> {
+            PageInfo pageInfo = fairPageScheduler.runPage(tenantId, () -> {
+                BufferedImage qrCodeImage = scanImageUtil.extractQrCodeRegion(frame);
+                try {
+                    return processPage(sessionDir, sourceIndex, qrCodeImage,
+                            outputStream -> pdfUtil.writeScanPage(frame, outputStream));
+                } finally {
+                    imageBufferPool.releaseImage(qrCodeImage);
+                }
+            });
+            counts[pageInfo.getPageIndex() >= 0 ? 0 : 1]++;
+            pageListener.accept(pageInfo);
+        });
+        
+        return new ProcessingSummary(Paths.get(sessionDir).getFileName().toString(),
+                counts[0] + counts[1], counts[0], counts[1], System.currentTimeMillis() - startTime);
+    }
+    
+
+    /**
+     * Lists the pages stored for a session: decoded pages ordered by their decoded index, followed by
+     * the unknown pages in the order they appeared in the upload.
+     */
+    public List<PageInfo> listSessionPages(String sessionId) {
+        Path sessionDir = fileStorageService.getSessionDirectory(sessionId);
+        // Directory names are unique, so both indexes are unique within a session
+        Map<Integer, PageInfo> decodedPages = new TreeMap<>();
+        Map<Integer, PageInfo> unknownPages = new TreeMap<>();
+        
+        try (Stream<Path> pageDirs = Files.list(sessionDir)) {
+            for (Path pageDir : (Iterable<Path>) pageDirs::iterator) {
+                Matcher matcher = PAGE_DIRECTORY_PATTERN.matcher(pageDir.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                
+                int index = Integer.parseInt(matcher.group(2));
+                Path pageFile = pageDir.resolve("page_" + index + ".pdf");
+                if (!Files.isRegularFile(pageFile)) {
+                    continue;
+                }
+                
+                if (matcher.group(1) == null) {
+                    decodedPages.put(index, new PageInfo(index, pageFile.toString(), 0));
+                } else {
+                    unknownPages.put(index, new PageInfo(-1, pageFile.toString(), 0));
+                }
+            }
+        } catch (IOException e) {
+            throw new FileStorageException("Failed to list pages of session " + sessionId, e);
+        }
+        
+        List<PageInfo> pageInfoList = new ArrayList<>(decodedPages.values());
+        pageInfoList.addAll(unknownPages.values());
+        return pageInfoList;
+    }
+    
+
+    public void reassembleSession(String sessionId, boolean includeUnknownPages, OutputStream outputStream) {
+        List<File> pageFiles = new ArrayList<>();
+        for (PageInfo pageInfo : listSessionPages(sessionId)) {
+            if (pageInfo.getPageIndex() >= 0 || includeUnknownPages) {
+                pageFiles.add(new File(pageInfo.getFilePath()));
+            }
+        }
+        
+        if (pageFiles.isEmpty()) {
+            throw new FileStorageException("Session " + sessionId + " has no pages to reassemble");
+        }
+        
+        pdfUtil.mergePdfFiles(pageFiles, outputStream);
+    }
+    
+
+    private PageInfo processPage(String sessionDir, int sourceIndex, BufferedImage qrCodeImage, Consumer<OutputStream> pageWriter) {
+        long decodeStart = System.currentTimeMillis();
+        try {
+            try {
+                String qrCodeContent = qrCodeUtil.readQrCode(qrCodeImage);
+                long decodeTime = System.currentTimeMillis() - decodeStart;
+                
+                Map<String, Object> pageInfoMap = objectMapper.readValue(qrCodeContent, Map.class);
+                int pageIndex = (int) pageInfoMap.get("pageIndex");
+                
+                String pageDir = Paths.get(sessionDir, "page_" + pageIndex).toString();
+                Files.createDirectories(Paths.get(pageDir));
+                
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                pageWriter.accept(baos);
+                
+                String pagePath = fileStorageService.savePage(baos.toByteArray(), pageDir, pageIndex);
+                
+                return new PageInfo(pageIndex, pagePath, decodeTime);
+            } catch (QrCodeException e) {
+                long decodeTime = System.currentTimeMillis() - decodeStart;
+                
+                String pageDir = Paths.get(sessionDir, "page_unknown_" + sourceIndex).toString();
+                Files.createDirectories(Paths.get(pageDir));
+                
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                pageWriter.accept(baos);
+                
+                String pagePath = fileStorageService.savePage(baos.toByteArray(), pageDir, sourceIndex);
+                return new PageInfo(-1, pagePath, decodeTime); // Use -1 to indicate unknown index
+            }
         } catch (IOException e) {
             throw new FileStorageException("Failed to process PDF file with QR codes", e);
         }
     }
     
 
-    private int countPages(byte[] pdfBytes) {
+    int countPages(byte[] pdfBytes) {
         try {
             try (org.apache.pdfbox.pdmodel.PDDocument document =
                     org.apache.pdfbox.pdmodel.PDDocument.load(new ByteArrayInputStream(pdfBytes))) {
@@ -0,0 +1,115 @@
+package com.qrpdfmanager.service;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import com.qrpdfmanager.config.WarmUpConfig;
+import com.qrpdfmanager.util.PdfUtil;
+import com.qrpdfmanager.util.QrCodeUtil;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Runs the generate, stamp, render and decode paths on a synthetic document before the
+ * application reports ready. Spring Boot only publishes ReadinessState.ACCEPTING_TRAFFIC after
+ * all ApplicationRunners have returned, so the readiness probe stays down until this finishes.
+ */
+@Service
+@ConditionalOnProperty(prefix = "warmup", name = "enabled", havingValue = "true")
+public class WarmUpService implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(WarmUpService.class);
+
+    private static final int SYNTHETIC_PAGE_COUNT = 2;
+
+    @Autowired
+    private QrCodeService qrCodeService;
+
+    @Autowired
+    private QrCodeUtil qrCodeUtil;
+
+    @Autowired
+    private PdfUtil pdfUtil;
+
+    @Autowired
+    private WarmUpConfig warmUpConfig;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long startTime = System.nanoTime();
+        boolean succeeded = false;
+
+        try {
+            byte[] syntheticPdf = createSyntheticPdf();
+            for (int i = 0; i < warmUpConfig.getIterations(); i++) {
+                runIteration(syntheticPdf);
+            }
+            succeeded = true;
+        } catch (Exception e) {
+            // A failed warm-up only costs latency on the first requests; it must not block startup
+            log.warn("Warm-up failed after {} ms, continuing without it: {}",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), e.getMessage());
+        }
+
+        long elapsedNanos = System.nanoTime() - startTime;
+        meterRegistry.timer("qrpdf.warmup", "outcome", succeeded ? "success" : "failure")
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        if (succeeded) {
+            log.info("Warm-up completed in {} ms ({} iterations)",
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), warmUpConfig.getIterations());
+        }
+    }
+
+    private void runIteration(byte[] syntheticPdf) {
+        byte[] stampedPdf = qrCodeService.generateQrCodesForPdf(syntheticPdf);
+
+        List<BufferedImage> qrCodeImages = pdfUtil.extractQrCodesFromPdf(stampedPdf);
+        for (BufferedImage qrCodeImage : qrCodeImages) {
+            qrCodeUtil.readQrCode(qrCodeImage);
+        }
+
+        pdfUtil.extractPageFromPdf(stampedPdf, 0, OutputStream.nullOutputStream());
+    }
+
+    private byte[] createSyntheticPdf() throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < SYNTHETIC_PAGE_COUNT; i++) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                document.addPage(page);
+
+                // Text in a standard font makes the first render build PDFBox's font cache now
+                try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+                    contentStream.beginText();
+                    contentStream.setFont(PDType1Font.HELVETICA, 12);
+                    contentStream.newLineAtOffset(72, 760);
+                    contentStream.showText("Warm-up page " + i);
+                    contentStream.endText();
+                }
+            }
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            document.save(baos);
+            return baos.toByteArray();
+        }
+    }
+}
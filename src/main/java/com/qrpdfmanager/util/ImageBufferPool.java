@@ -0,0 +1,143 @@
+package com.qrpdfmanager.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.qrpdfmanager.config.ImagePoolConfig;
+
+/**
+ * Thread-safe pool of raster and luminance buffers for the extraction path. Page crops and
+ * decode variants are several megabytes each, which makes them humongous allocations under G1;
+ * reusing them keeps the allocation rate flat under concurrent load. The total size of idle
+ * buffers is capped by image-pool.max-retained-bytes, anything beyond that is left to the GC.
+ */
+@Component
+public class ImageBufferPool {
+
+    private final Map<ImageKey, Deque<BufferedImage>> images = new ConcurrentHashMap<>();
+    private final Map<Integer, Deque<byte[]>> byteArrays = new ConcurrentHashMap<>();
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final long maxRetainedBytes;
+
+    @Autowired
+    public ImageBufferPool(ImagePoolConfig imagePoolConfig) {
+        this.maxRetainedBytes = imagePoolConfig.getMaxRetainedBytes();
+    }
+
+    /**
+     * Returns a cleared image, indistinguishable from {@code new BufferedImage(width, height, type)}.
+     */
+    public BufferedImage acquireImage(int width, int height, int type) {
+        Deque<BufferedImage> pooled = images.get(new ImageKey(width, height, type));
+        BufferedImage image = pooled != null ? pooled.pollFirst() : null;
+        if (image == null) {
+            return new BufferedImage(width, height, type);
+        }
+
+        retainedBytes.addAndGet(-sizeOf(image));
+        clear(image.getRaster().getDataBuffer());
+        return image;
+    }
+
+    public void releaseImage(BufferedImage image) {
+        if (image == null || !isPoolable(image.getRaster().getDataBuffer()) || !reserve(sizeOf(image))) {
+            return;
+        }
+
+        images.computeIfAbsent(new ImageKey(image.getWidth(), image.getHeight(), image.getType()),
+                key -> new ConcurrentLinkedDeque<>()).offerFirst(image);
+    }
+
+    /**
+     * Returns an array of exactly the given length. Its contents are undefined.
+     */
+    public byte[] acquireBytes(int length) {
+        Deque<byte[]> pooled = byteArrays.get(length);
+        byte[] buffer = pooled != null ? pooled.pollFirst() : null;
+        if (buffer == null) {
+            return new byte[length];
+        }
+
+        retainedBytes.addAndGet(-length);
+        return buffer;
+    }
+
+    public void releaseBytes(byte[] buffer) {
+        if (buffer == null || !reserve(buffer.length)) {
+            return;
+        }
+
+        byteArrays.computeIfAbsent(buffer.length, key -> new ConcurrentLinkedDeque<>()).offerFirst(buffer);
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    private boolean reserve(long bytes) {
+        if (retainedBytes.addAndGet(bytes) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-bytes);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isPoolable(DataBuffer dataBuffer) {
+        return dataBuffer instanceof DataBufferInt || dataBuffer instanceof DataBufferByte;
+    }
+
+    private static void clear(DataBuffer dataBuffer) {
+        if (dataBuffer instanceof DataBufferInt) {
+            Arrays.fill(((DataBufferInt) dataBuffer).getData(), 0);
+        } else {
+            Arrays.fill(((DataBufferByte) dataBuffer).getData(), (byte) 0);
+        }
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        return (long) dataBuffer.getSize() * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8;
+    }
+
+
+    private static final class ImageKey {
+        private final int width;
+        private final int height;
+        private final int type;
+
+        ImageKey(int width, int height, int type) {
+            this.width = width;
+            this.height = height;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ImageKey)) {
+                return false;
+            }
+            ImageKey other = (ImageKey) o;
+            return width == other.width && height == other.height && type == other.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(width, height, type);
+        }
+    }
+}
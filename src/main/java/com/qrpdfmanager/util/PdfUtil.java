@@ -1,144 +1,511 @@
 package com.qrpdfmanager.util;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.PDFCloneUtility;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.PDPageContentStream.AppendMode;
+import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.CCITTFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
 import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.interactive.action.PDActionGoTo;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationLink;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
 import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.rendering.RenderDestination;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.qrpdfmanager.config.FileStorageConfig;
 import com.qrpdfmanager.exception.FileStorageException;
 
-import javax.imageio.ImageIO;
-
 @Component
 public class PdfUtil {
 
-    public byte[] embedQrCodesIntoPdf(InputStream pdfInputStream, byte[][] qrCodes) {
+    private static final Logger log = LoggerFactory.getLogger(PdfUtil.class);
+
+    // Content stream operators that name a resource, mapped to the resource category they look in
+    private static final Map<String, COSName> RESOURCE_OPERATORS = Map.of(
+            "Tf", COSName.FONT,
+            "Do", COSName.XOBJECT,
+            "gs", COSName.EXT_G_STATE,
+            "sh", COSName.SHADING,
+            "scn", COSName.PATTERN,
+            "SCN", COSName.PATTERN);
+
+    @Autowired
+    private ImageBufferPool imageBufferPool;
+
+    @Autowired
+    private FileStorageConfig fileStorageConfig;
+
+    /**
+     * Encodes the QR codes of a contiguous page range as image XObjects in a scratch document of its own.
+     * A PDDocument must not be shared between threads, so this lets shards encode in parallel while the
+     * document being stamped stays on one thread; image encoding is by far the most expensive part of stamping.
+     */
+    public QrCodeShard encodeQrCodeShard(int firstPageIndex, int pageCount, IntFunction<BufferedImage> qrCodeForPage) {
+        PDDocument scratch = new PDDocument();
+        try {
+            List<PDImageXObject> images = new ArrayList<>(pageCount);
+            for (int i = 0; i < pageCount; i++) {
+                images.add(LosslessFactory.createFromImage(scratch, qrCodeForPage.apply(firstPageIndex + i)));
+            }
+            return new QrCodeShard(firstPageIndex, scratch, images);
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeQuietly(scratch);
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new FileStorageException("Failed to encode QR codes for pages starting at " + firstPageIndex, e);
+        }
+    }
+
+    /**
+     * Stitches encoded shards onto the source document in page order. Only the already compressed image
+     * streams are copied, so the pages keep their original, shared resources and catalog.
+     */
+    public byte[] embedQrCodeShardsIntoPdf(InputStream pdfInputStream, List<QrCodeShard> shards) {
         try (PDDocument document = PDDocument.load(pdfInputStream)) {
             int numberOfPages = document.getNumberOfPages();
+            int coveredPages = shards.stream().mapToInt(shard -> shard.images.size()).sum();
             
-            if (qrCodes.length != numberOfPages) {
+            if (coveredPages != numberOfPages) {
                 throw new FileStorageException("Number of QR codes does not match number of pages");
             }
             
-            for (int i = 0; i < numberOfPages; i++) {
-                PDPage page = document.getPage(i);
-                PDRectangle pageSize = page.getMediaBox();
-                
-                // Convert QR code bytes to BufferedImage for lossless embedding
-                BufferedImage qrCodeBufferedImage = ImageIO.read(new ByteArrayInputStream(qrCodes[i]));
-                
-                // Create image from QR code using LosslessFactory to preserve quality
-                PDImageXObject qrCodeImage = LosslessFactory.createFromImage(
-                    document, 
-                    qrCodeBufferedImage
-                );
-                
-                // Calculate position (bottom right corner with increased margin)
-                // Increased QR code size from 100 to 200 for better readability
-                float qrCodeWidth = 200;
-                float qrCodeHeight = 200;
-                
-                // PDF coordinates start from bottom-left corner
-                // Position QR code in bottom right with 40 point margin
-                float xPosition = pageSize.getWidth() - qrCodeWidth - 40;
-                float yPosition = 40; // 40 points from bottom
-                
-                // Add QR code to the page
-                try (PDPageContentStream contentStream = new PDPageContentStream(
-                        document, 
-                        page, 
-                        AppendMode.APPEND, 
-                        true, 
-                        true)) {
-                    contentStream.drawImage(
-                        qrCodeImage, 
-                        xPosition, 
-                        yPosition, 
-                        qrCodeWidth, 
-                        qrCodeHeight
-                    );
+            PDFCloneUtility cloner = new PDFCloneUtility(document);
+            for (QrCodeShard shard : shards) {
+                for (int i = 0; i < shard.images.size(); i++) {
+                    COSStream imageStream = (COSStream) cloner.cloneForNewDocument(shard.images.get(i).getCOSObject());
+                    PDImageXObject qrCodeImage = new PDImageXObject(new PDStream(imageStream), null);
+                    
+                    drawQrCode(document, document.getPage(shard.firstPageIndex + i), qrCodeImage);
                 }
             }
             
-            // Save the modified document with high quality settings
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             document.save(baos);
             return baos.toByteArray();
-            
         } catch (IOException e) {
             throw new FileStorageException("Failed to process PDF document", e);
         }
     }
 
+    private void drawQrCode(PDDocument document, PDPage page, PDImageXObject qrCodeImage) throws IOException {
+        PDRectangle pageSize = page.getMediaBox();
+        
+        // Calculate position (bottom right corner with increased margin)
+        // Increased QR code size from 100 to 200 for better readability
+        float qrCodeWidth = 200;
+        float qrCodeHeight = 200;
+        
+        // PDF coordinates start from bottom-left corner
+        // Position QR code in bottom right with 40 point margin
+        float xPosition = pageSize.getWidth() - qrCodeWidth - 40;
+        float yPosition = 40; // 40 points from bottom
+        
+        // Add QR code to the page
+        try (PDPageContentStream contentStream = new PDPageContentStream(
+                document, 
+                page, 
+                AppendMode.APPEND, 
+                true, 
+                true)) {
+            contentStream.drawImage(
+                qrCodeImage, 
+                xPosition, 
+                yPosition, 
+                qrCodeWidth, 
+                qrCodeHeight
+            );
+        }
+    }
+
     public List<BufferedImage> extractQrCodesFromPdf(byte[] pdfBytes) {
         try (PDDocument document = PDDocument.load(new ByteArrayInputStream(pdfBytes))) {
-            PDFRenderer renderer = new PDFRenderer(document);
-            int numberOfPages = document.getNumberOfPages();
             List<BufferedImage> qrCodeImages = new ArrayList<>();
-            
-            for (int i = 0; i < numberOfPages; i++) {
-                // Render the page at a higher DPI for better QR code recognition
-                // Increased from 300 to 600 DPI for more reliable QR code extraction
-                BufferedImage pageImage = renderer.renderImageWithDPI(i, 600);
-                
-                // Extract the bottom right corner where QR code is expected
-                int width = pageImage.getWidth();
-                int height = pageImage.getHeight();
-                
-                // Calculate QR code position in rendered image
-                // Match the embedding coordinates (bottom right with 40px margin)
-                int qrSize = 200 * 600 / 72; // Convert from points to pixels at 600 DPI
-                int margin = 40 * 600 / 72;  // Convert margin from points to pixels
-                
-                // PDF coordinates start from bottom-left, but image is top-left
-                int x = width - qrSize - margin;
-                int y = height - qrSize - margin;
-                
-                // Ensure coordinates are within image bounds
-                x = Math.max(0, x);
-                y = Math.max(0, y);
-                qrSize = Math.min(qrSize, Math.min(width - x, height - y));
-                
-                // Extract the region containing the QR code
-                BufferedImage qrCodeImage = pageImage.getSubimage(x, y, qrSize, qrSize);
-                qrCodeImages.add(qrCodeImage);
-            }
-            
+            extractQrCodes(document, (pageIndex, qrCodeImage) -> qrCodeImages.add(copyImage(qrCodeImage)), Runnable::run);
             return qrCodeImages;
         } catch (IOException e) {
             throw new FileStorageException("Failed to extract QR codes from PDF", e);
         }
     }
+
+    /**
+     * Renders the QR code region of each page and hands it to the consumer as soon as that page is
+     * rendered, so callers can act on early pages without waiting for the whole document.
+     * The image is a pooled buffer that is reused once the consumer returns; copy it to keep it.
+     */
+    public void extractQrCodesFromPdf(File pdfFile, BiConsumer<Integer, BufferedImage> qrCodeConsumer) {
+        extractQrCodesFromPdf(pdfFile, qrCodeConsumer, Runnable::run);
+    }
+
+    /**
+     * As above, but each page's work, rendering included, is handed to the page runner, which must
+     * run it on the calling thread. This lets a scheduler decide when each page may proceed.
+     */
+    public void extractQrCodesFromPdf(File pdfFile, BiConsumer<Integer, BufferedImage> qrCodeConsumer,
+                                      Consumer<Runnable> pageRunner) {
+        // Loading from a file lets PDFBox parse objects lazily instead of holding the whole document in memory
+        try (PDDocument document = PDDocument.load(pdfFile)) {
+            extractQrCodes(document, qrCodeConsumer, pageRunner);
+        } catch (IOException e) {
+            throw new FileStorageException("Failed to extract QR codes from PDF", e);
+        }
+    }
+
+    private void extractQrCodes(PDDocument document, BiConsumer<Integer, BufferedImage> qrCodeConsumer,
+                                Consumer<Runnable> pageRunner) {
+        PDFRenderer renderer = new PDFRenderer(document);
+        int numberOfPages = document.getNumberOfPages();
+        
+        for (int i = 0; i < numberOfPages; i++) {
+            int pageIndex = i;
+            pageRunner.accept(() -> {
+                try {
+                    extractQrCode(document, renderer, pageIndex, qrCodeConsumer);
+                } catch (IOException e) {
+                    throw new FileStorageException("Failed to extract QR codes from PDF", e);
+                }
+            });
+        }
+    }
+
+    private void extractQrCode(PDDocument document, PDFRenderer renderer, int pageIndex,
+                               BiConsumer<Integer, BufferedImage> qrCodeConsumer) throws IOException {
+        // Render the page at a higher DPI for better QR code recognition
+        // Increased from 300 to 600 DPI for more reliable QR code extraction
+        float scale = 600 / 72f;
+        
+        // Size of the rendered page, computed the same way PDFRenderer.renderImage does
+        PDPage page = document.getPage(pageIndex);
+        PDRectangle cropBox = page.getCropBox();
+        int pageWidth = (int) Math.max(Math.floor(cropBox.getWidth() * scale), 1);
+        int pageHeight = (int) Math.max(Math.floor(cropBox.getHeight() * scale), 1);
+        boolean rotated = page.getRotation() == 90 || page.getRotation() == 270;
+        int width = rotated ? pageHeight : pageWidth;
+        int height = rotated ? pageWidth : pageHeight;
+        
+        // Calculate QR code position in rendered image
+        // Match the embedding coordinates (bottom right with 40px margin)
+        int qrSize = 200 * 600 / 72; // Convert from points to pixels at 600 DPI
+        int margin = 40 * 600 / 72;  // Convert margin from points to pixels
+        
+        // PDF coordinates start from bottom-left, but image is top-left
+        int x = width - qrSize - margin;
+        int y = height - qrSize - margin;
+        
+        // Ensure coordinates are within image bounds
+        x = Math.max(0, x);
+        y = Math.max(0, y);
+        qrSize = Math.min(qrSize, Math.min(width - x, height - y));
+        
+        // Render only the region containing the QR code instead of the full page
+        BufferedImage qrCodeImage = imageBufferPool.acquireImage(qrSize, qrSize, BufferedImage.TYPE_INT_RGB);
+        try {
+            Graphics2D graphics = qrCodeImage.createGraphics();
+            try {
+                graphics.setBackground(Color.WHITE);
+                graphics.clearRect(0, 0, qrSize, qrSize);
+                graphics.translate(-x, -y);
+                renderer.renderPageToGraphics(pageIndex, graphics, scale, scale, RenderDestination.EXPORT);
+            } finally {
+                graphics.dispose();
+            }
+            
+            qrCodeConsumer.accept(pageIndex, qrCodeImage);
+        } finally {
+            imageBufferPool.releaseImage(qrCodeImage);
+        }
+    }
+
+    private BufferedImage copyImage(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        copy.setData(image.getRaster());
+        return copy;
+    }
     
 
     public void extractPageFromPdf(byte[] pdfBytes, int pageIndex, OutputStream outputStream) {
         try (PDDocument document = PDDocument.load(new ByteArrayInputStream(pdfBytes))) {
-            int numberOfPages = document.getNumberOfPages();
+            extractPage(document, pageIndex, outputStream);
+        } catch (IOException e) {
+            throw new FileStorageException("Failed to extract page from PDF", e);
+        }
+    }
+
+    public void extractPageFromPdf(File pdfFile, int pageIndex, OutputStream outputStream) {
+        try (PDDocument document = PDDocument.load(pdfFile)) {
+            extractPage(document, pageIndex, outputStream);
+        } catch (IOException e) {
+            throw new FileStorageException("Failed to extract page from PDF", e);
+        }
+    }
+
+    private void extractPage(PDDocument document, int pageIndex, OutputStream outputStream) throws IOException {
+        int numberOfPages = document.getNumberOfPages();
+        
+        if (pageIndex < 0 || pageIndex >= numberOfPages) {
+            throw new FileStorageException("Invalid page index: " + pageIndex);
+        }
+        
+        try (PDDocument singlePageDoc = new PDDocument()) {
+            PDPage page = document.getPage(pageIndex);
+            copyInheritedAttributes(page);
+            singlePageDoc.addPage(page);
             
-            if (pageIndex < 0 || pageIndex >= numberOfPages) {
-                throw new FileStorageException("Invalid page index: " + pageIndex);
+            if (fileStorageConfig.isCompactSplitPages()) {
+                compactPage(singlePageDoc, page, pageIndex);
             }
             
-            PDDocument singlePageDoc = new PDDocument();
-            singlePageDoc.addPage(document.getPage(pageIndex));
             singlePageDoc.save(outputStream);
-            singlePageDoc.close();
+        }
+    }
+
+    /**
+     * Writes a scanned frame as a single-page PDF sized from the scan resolution. JPEG scans are
+     * embedded as they are; bilevel frames use CCITT G4, everything else is stored losslessly.
+     */
+    public void writeScanPage(ScanImageUtil.ScanFrame frame, OutputStream outputStream) {
+        BufferedImage image = frame.getImage();
+        
+        try (PDDocument document = new PDDocument()) {
+            PDImageXObject pageImage;
+            if (frame.getJpegBytes() != null) {
+                pageImage = JPEGFactory.createFromByteArray(document, frame.getJpegBytes());
+            } else if (image.getColorModel().getPixelSize() == 1) {
+                pageImage = CCITTFactory.createFromImage(document, image);
+            } else {
+                pageImage = LosslessFactory.createFromImage(document, image);
+            }
+            
+            float pageWidth = image.getWidth() * 72 / frame.getDpiX();
+            float pageHeight = image.getHeight() * 72 / frame.getDpiY();
+            PDPage page = new PDPage(new PDRectangle(pageWidth, pageHeight));
+            document.addPage(page);
+            
+            try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+                contentStream.drawImage(pageImage, 0, 0, pageWidth, pageHeight);
+            }
+            
+            document.save(outputStream);
         } catch (IOException e) {
-            throw new FileStorageException("Failed to extract page from PDF", e);
+            throw new FileStorageException("Failed to write scanned page", e);
+        }
+    }
+
+    /**
+     * Merges the files in order straight into the output stream. Each source is closed as soon as its
+     * pages have been copied and stream data is kept in scratch files under the temp directory, so
+     * heap use does not grow with the size of the sources.
+     */
+    public void mergePdfFiles(List<File> pdfFiles, OutputStream outputStream) {
+        PDFMergerUtility merger = new PDFMergerUtility();
+        merger.setDocumentMergeMode(PDFMergerUtility.DocumentMergeMode.OPTIMIZE_RESOURCES_MODE);
+        merger.setDestinationStream(outputStream);
+        
+        try {
+            for (File pdfFile : pdfFiles) {
+                merger.addSource(pdfFile);
+            }
+            merger.mergeDocuments(MemoryUsageSetting.setupTempFileOnly()
+                    .setTempDir(new File(fileStorageConfig.getTempDir())));
+        } catch (IOException e) {
+            throw new FileStorageException("Failed to merge PDF files", e);
+        }
+    }
+
+    // Attributes inherited from the source page tree are lost once the page is re-parented
+    private void copyInheritedAttributes(PDPage page) {
+        COSDictionary pageDict = page.getCOSObject();
+        if (!pageDict.containsKey(COSName.MEDIA_BOX)) {
+            page.setMediaBox(page.getMediaBox());
+        }
+        if (!pageDict.containsKey(COSName.CROP_BOX)) {
+            page.setCropBox(page.getCropBox());
+        }
+        if (!pageDict.containsKey(COSName.ROTATE)) {
+            page.setRotation(page.getRotation());
+        }
+        if (!pageDict.containsKey(COSName.RESOURCES) && page.getResources() != null) {
+            page.setResources(page.getResources());
+        }
+    }
+
+    /**
+     * Trims a page that is about to be saved on its own. Office documents usually share one resource
+     * dictionary across all pages, so without this every split page carries every font and image of
+     * the source. Only the objects reachable from the page are written, so dropping the references is
+     * enough. Form XObjects and annotation appearances keep their own resources untouched.
+     */
+    private void compactPage(PDDocument target, PDPage page, int pageIndex) throws IOException {
+        // Everything is computed before the page is touched, so a content stream PDFBox cannot parse
+        // leaves the page exactly as it was instead of failing the whole split
+        COSDictionary prunedResources = null;
+        PDStream compressedContents = null;
+        try {
+            PDResources resources = page.getResources();
+            if (resources != null && page.hasContents()) {
+                Map<COSName, Set<COSName>> used = findUsedResources(page);
+                if (!drawsInheritingForm(resources, used)) {
+                    prunedResources = pruneResources(resources.getCOSObject(), used);
+                }
+            }
+            
+            // Merge the content streams into one Flate-compressed stream
+            if (page.hasContents()) {
+                try (InputStream contents = page.getContents()) {
+                    compressedContents = new PDStream(target, contents, COSName.FLATE_DECODE);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not compact page {}, saving it uncompacted: {}", pageIndex, e.getMessage());
+            prunedResources = null;
+            compressedContents = null;
+        }
+        
+        if (prunedResources != null) {
+            page.getCOSObject().setItem(COSName.RESOURCES, prunedResources);
+        }
+        if (compressedContents != null) {
+            page.setContents(compressedContents);
+        }
+        
+        // Links into other pages and the /P back-reference would otherwise pull those pages into the output
+        page.getCOSObject().removeItem(COSName.B);
+        for (PDAnnotation annotation : page.getAnnotations()) {
+            annotation.getCOSObject().removeItem(COSName.P);
+            if (annotation instanceof PDAnnotationLink) {
+                PDAnnotationLink link = (PDAnnotationLink) annotation;
+                if (link.getDestination() instanceof PDPageDestination) {
+                    link.setDestination(null);
+                }
+                if (link.getAction() instanceof PDActionGoTo) {
+                    link.setAction(null);
+                }
+            }
+        }
+    }
+
+    private Map<COSName, Set<COSName>> findUsedResources(PDPage page) throws IOException {
+        Map<COSName, Set<COSName>> used = new HashMap<>();
+        PDFStreamParser parser = new PDFStreamParser(page);
+        List<COSBase> operands = new ArrayList<>();
+        
+        for (Object token = parser.parseNextToken(); token != null; token = parser.parseNextToken()) {
+            if (!(token instanceof Operator)) {
+                operands.add((COSBase) token);
+                continue;
+            }
+            
+            COSName category = RESOURCE_OPERATORS.get(((Operator) token).getName());
+            if (category != null && !operands.isEmpty()) {
+                // Tf names the font first; for the other operators the resource name is the last operand
+                COSBase name = category == COSName.FONT ? operands.get(0) : operands.get(operands.size() - 1);
+                if (name instanceof COSName) {
+                    used.computeIfAbsent(category, key -> new HashSet<>()).add((COSName) name);
+                }
+            }
+            operands.clear();
+        }
+        return used;
+    }
+
+    // Old producers emit forms without /Resources that draw with the page's resources instead
+    private boolean drawsInheritingForm(PDResources resources, Map<COSName, Set<COSName>> used) throws IOException {
+        for (COSName name : used.getOrDefault(COSName.XOBJECT, Collections.emptySet())) {
+            PDXObject xObject = resources.getXObject(name);
+            if (xObject instanceof PDFormXObject && ((PDFormXObject) xObject).getResources() == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private COSDictionary pruneResources(COSDictionary resources, Map<COSName, Set<COSName>> used) {
+        COSDictionary pruned = new COSDictionary();
+        
+        for (COSName key : resources.keySet()) {
+            COSBase value = resources.getDictionaryObject(key);
+            if (!RESOURCE_OPERATORS.containsValue(key) || !(value instanceof COSDictionary)) {
+                // Color spaces and marked-content properties are small and may be named from inline images
+                pruned.setItem(key, resources.getItem(key));
+                continue;
+            }
+            
+            COSDictionary category = (COSDictionary) value;
+            COSDictionary kept = new COSDictionary();
+            Set<COSName> names = used.getOrDefault(key, Collections.emptySet());
+            for (COSName name : category.keySet()) {
+                if (names.contains(name)) {
+                    kept.setItem(name, category.getItem(name));
+                }
+            }
+            if (kept.size() > 0) {
+                pruned.setItem(key, kept);
+            }
+        }
+        return pruned;
+    }
+
+
+    /**
+     * QR code images for a contiguous range of pages, encoded in their own scratch document.
+     */
+    public static final class QrCodeShard implements Closeable {
+        private final int firstPageIndex;
+        private final PDDocument scratch;
+        private final List<PDImageXObject> images;
+
+        private QrCodeShard(int firstPageIndex, PDDocument scratch, List<PDImageXObject> images) {
+            this.firstPageIndex = firstPageIndex;
+            this.scratch = scratch;
+            this.images = images;
+        }
+
+        @Override
+        public void close() throws IOException {
+            scratch.close();
         }
     }
 }
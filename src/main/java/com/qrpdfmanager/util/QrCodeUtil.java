@@ -4,19 +4,18 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.imageio.ImageIO;
-
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Binarizer;
 import com.google.zxing.BinaryBitmap;
 import com.google.zxing.DecodeHintType;
 import com.google.zxing.EncodeHintType;
@@ -24,10 +23,11 @@ import com.google.zxing.LuminanceSource;
 import com.google.zxing.MultiFormatReader;
 import com.google.zxing.MultiFormatWriter;
 import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
 import com.google.zxing.Result;
 import com.google.zxing.WriterException;
-import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
 import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitArray;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.common.HybridBinarizer;
 import com.google.zxing.common.GlobalHistogramBinarizer;
@@ -41,8 +41,15 @@ public class QrCodeUtil {
     private static final int QR_CODE_SIZE = 200;
     // Added white border size (in pixels)
     private static final int WHITE_BORDER = 20;
+    // Below this luminance spread a region is treated as blank paper
+    private static final double MIN_LUMINANCE_STDDEV = 8.0;
+    // Finder patterns span many rows, so sampling every few rows is enough to find one
+    private static final int FINDER_SCAN_ROW_STEP = 3;
+
+    @Autowired
+    private ImageBufferPool imageBufferPool;
 
-    public byte[] generateQrCode(String content) {
+    public BufferedImage generateQrCodeImage(String content) {
         try {
             Map<EncodeHintType, Object> hints = new HashMap<>();
             // Using highest error correction level for better readability
@@ -61,13 +68,8 @@ public class QrCodeUtil {
             BufferedImage qrImage = MatrixToImageWriter.toBufferedImage(bitMatrix);
             
             // Add additional white border around the QR code
-            BufferedImage borderedImage = addWhiteBorder(qrImage, WHITE_BORDER);
-            
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(borderedImage, "PNG", baos);
-            
-            return baos.toByteArray();
-        } catch (WriterException | IOException e) {
+            return addWhiteBorder(qrImage, WHITE_BORDER);
+        } catch (WriterException e) {
             throw new QrCodeException("Failed to generate QR code", e);
         }
     }
@@ -95,6 +97,11 @@ public class QrCodeUtil {
     }
     
     public String readQrCode(BufferedImage image) {
+        // Pages without any QR-like structure would otherwise run the whole cascade below before failing
+        if (!mayContainQrCode(image)) {
+            throw new QrCodeException("No QR code structure found in the expected region");
+        }
+        
         // Create a list to store all exceptions for better error reporting
         List<Exception> exceptions = new ArrayList<>();
         
@@ -111,8 +118,7 @@ public class QrCodeUtil {
         // Try with preprocessed images
         try {
             // Try with increased contrast
-            BufferedImage highContrastImage = enhanceContrast(image);
-            String result = decodeQRCode(highContrastImage);
+            String result = decodeAndRelease(enhanceContrast(image));
             if (result != null) {
                 return result;
             }
@@ -122,8 +128,7 @@ public class QrCodeUtil {
         
         try {
             // Try with grayscale
-            BufferedImage grayscaleImage = convertToGrayscale(image);
-            String result = decodeQRCode(grayscaleImage);
+            String result = decodeAndRelease(convertToGrayscale(image));
             if (result != null) {
                 return result;
             }
@@ -133,8 +138,7 @@ public class QrCodeUtil {
         
         try {
             // Try with inverted colors
-            BufferedImage invertedImage = invertColors(image);
-            String result = decodeQRCode(invertedImage);
+            String result = decodeAndRelease(invertColors(image));
             if (result != null) {
                 return result;
             }
@@ -145,8 +149,7 @@ public class QrCodeUtil {
         // Try with different scales
         for (double scale : new double[] {1.5, 2.0, 0.75, 0.5}) {
             try {
-                BufferedImage scaledImage = scaleImage(image, scale);
-                String result = decodeQRCode(scaledImage);
+                String result = decodeAndRelease(scaleImage(image, scale));
                 if (result != null) {
                     return result;
                 }
@@ -164,51 +167,200 @@ public class QrCodeUtil {
         throw new QrCodeException(errorMessage.toString());
     }
     
+    /**
+     * Cheap pre-check for the decode cascade. Returns false only when the region is nearly uniform or
+     * when no row of the binarized region crosses anything shaped like a finder pattern. A damaged code
+     * with at least one intact finder pattern still passes and gets the full decoding effort.
+     */
+    public boolean mayContainQrCode(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        
+        byte[] luminance = imageBufferPool.acquireBytes(width * height);
+        try {
+            toLuminance(image, luminance);
+            
+            if (luminanceStandardDeviation(luminance) < MIN_LUMINANCE_STDDEV) {
+                return false;
+            }
+            
+            BitMatrix blackMatrix = new HybridBinarizer(
+                    new PlanarYUVLuminanceSource(luminance, width, height, 0, 0, width, height, false)).getBlackMatrix();
+            return containsFinderPatternRow(blackMatrix);
+        } catch (NotFoundException e) {
+            return false;
+        } finally {
+            imageBufferPool.releaseBytes(luminance);
+        }
+    }
+    
+    private double luminanceStandardDeviation(byte[] luminance) {
+        long sum = 0;
+        long sumOfSquares = 0;
+        for (byte value : luminance) {
+            int pixel = value & 0xFF;
+            sum += pixel;
+            sumOfSquares += pixel * pixel;
+        }
+        double mean = (double) sum / luminance.length;
+        return Math.sqrt(Math.max(0, (double) sumOfSquares / luminance.length - mean * mean));
+    }
+    
+    /**
+     * Looks for five consecutive runs in a 1:1:3:1:1 ratio, the horizontal cross-section of a finder
+     * pattern, confirmed by the same ratio vertically through its center. Both polarities are
+     * accepted so that inverted codes are not rejected.
+     */
+    private boolean containsFinderPatternRow(BitMatrix matrix) {
+        int width = matrix.getWidth();
+        int[] runs = new int[5];
+        BitArray row = new BitArray(width);
+        
+        for (int y = 0; y < matrix.getHeight(); y += FINDER_SCAN_ROW_STEP) {
+            row = matrix.getRow(y, row);
+            Arrays.fill(runs, 0);
+            int runCount = 0;
+            boolean current = row.get(0);
+            int runLength = 0;
+            
+            for (int x = 0; x <= width; x++) {
+                if (x < width && row.get(x) == current) {
+                    runLength++;
+                    continue;
+                }
+                
+                // Shift the finished run into the five-run window
+                System.arraycopy(runs, 1, runs, 0, 4);
+                runs[4] = runLength;
+                runCount++;
+                if (runCount >= 5 && isFinderPatternRatio(runs)
+                        && crossCheckVertical(matrix, x - runs[4] - runs[3] - runs[2] / 2, y, sum(runs))) {
+                    return true;
+                }
+                
+                if (x < width) {
+                    current = row.get(x);
+                    runLength = 1;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private boolean crossCheckVertical(BitMatrix matrix, int centerX, int centerY, int horizontalTotal) {
+        int height = matrix.getHeight();
+        boolean centerColor = matrix.get(centerX, centerY);
+        int[] runs = new int[5];
+        
+        // Walk up through the center run, the inner ring and the outer ring
+        int y = centerY;
+        for (int run = 2, color = 0; run >= 0; run--, color++) {
+            boolean expected = (color % 2 == 0) == centerColor;
+            while (y >= 0 && matrix.get(centerX, y) == expected) {
+                runs[run]++;
+                y--;
+            }
+        }
+        
+        // And down again, continuing the center run
+        y = centerY + 1;
+        for (int run = 2, color = 0; run <= 4; run++, color++) {
+            boolean expected = (color % 2 == 0) == centerColor;
+            while (y < height && matrix.get(centerX, y) == expected) {
+                runs[run]++;
+                y++;
+            }
+        }
+        
+        // Same size check as ZXing: vertical extent within 40% of the horizontal one
+        return isFinderPatternRatio(runs) && 5 * Math.abs(sum(runs) - horizontalTotal) < 2 * horizontalTotal;
+    }
+    
+    private int sum(int[] runs) {
+        return runs[0] + runs[1] + runs[2] + runs[3] + runs[4];
+    }
+    
+    // Same tolerance as ZXing's FinderPatternFinder
+    private boolean isFinderPatternRatio(int[] runs) {
+        int total = sum(runs);
+        if (total < 7) {
+            return false;
+        }
+        float moduleSize = total / 7.0f;
+        float maxVariance = moduleSize / 2.0f;
+        return Math.abs(moduleSize - runs[0]) < maxVariance
+                && Math.abs(moduleSize - runs[1]) < maxVariance
+                && Math.abs(3.0f * moduleSize - runs[2]) < 3 * maxVariance
+                && Math.abs(moduleSize - runs[3]) < maxVariance
+                && Math.abs(moduleSize - runs[4]) < maxVariance;
+    }
+    
+    private String decodeAndRelease(BufferedImage variant) {
+        try {
+            return decodeQRCode(variant);
+        } finally {
+            imageBufferPool.releaseImage(variant);
+        }
+    }
+    
     private String decodeQRCode(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        
+        // Luminance is computed once per image and shared by both binarizers and all rotations
+        byte[] luminance = imageBufferPool.acquireBytes(width * height);
+        byte[] rotated = null;
+        try {
+            toLuminance(image, luminance);
+            
+            String result = decodeLuminance(luminance, width, height);
+            if (result != null) {
+                return result;
+            }
+            
+            // Try with rotated images
+            rotated = imageBufferPool.acquireBytes(width * height);
+            for (int angle : new int[] {90, 180, 270}) {
+                rotateLuminance(luminance, width, height, angle, rotated);
+                
+                result = angle == 180
+                        ? decodeLuminance(rotated, width, height)
+                        : decodeLuminance(rotated, height, width);
+                if (result != null) {
+                    return result;
+                }
+            }
+            
+            return null; // All attempts failed
+        } finally {
+            imageBufferPool.releaseBytes(luminance);
+            imageBufferPool.releaseBytes(rotated);
+        }
+    }
+    
+    private String decodeLuminance(byte[] luminance, int width, int height) {
+        // The Y plane of a planar YUV source is exactly a luminance matrix, and ZXing uses it without copying
+        LuminanceSource source = new PlanarYUVLuminanceSource(luminance, width, height, 0, 0, width, height, false);
+        
         // Try with HybridBinarizer first (better for high contrast images)
         try {
-            return decodeWithBinarizer(image, new HybridBinarizer(new BufferedImageLuminanceSource(image)));
+            return decodeWithBinarizer(new HybridBinarizer(source));
         } catch (Exception e) {
             // Ignore and try next method
         }
         
         // Try with GlobalHistogramBinarizer (better for low contrast images)
         try {
-            return decodeWithGlobalHistogramBinarizer(image, new GlobalHistogramBinarizer(new BufferedImageLuminanceSource(image)));
+            return decodeWithBinarizer(new GlobalHistogramBinarizer(source));
         } catch (Exception e) {
             // Ignore and try next method
         }
         
-        // Try with rotated images
-        for (int angle : new int[] {90, 180, 270}) {
-            try {
-                BufferedImage rotatedImage = rotateImage(image, angle);
-                
-                // Try both binarizers with rotated image
-                try {
-                    return decodeWithBinarizer(rotatedImage, 
-                            new HybridBinarizer(new BufferedImageLuminanceSource(rotatedImage)));
-                } catch (Exception e) {
-                    // Ignore and try next method
-                }
-                
-                try {
-                    return decodeWithGlobalHistogramBinarizer(rotatedImage, 
-                            new GlobalHistogramBinarizer(new BufferedImageLuminanceSource(rotatedImage)));
-                } catch (Exception e) {
-                    // Ignore and try next method
-                }
-                
-            } catch (Exception e) {
-                // Ignore rotation errors
-            }
-        }
-        
-        return null; // All attempts failed
+        return null;
     }
     
 
-    private String decodeWithBinarizer(BufferedImage image, HybridBinarizer binarizer) throws NotFoundException {
+    private String decodeWithBinarizer(Binarizer binarizer) throws NotFoundException {
         Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
         hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
         hints.put(DecodeHintType.POSSIBLE_FORMATS, List.of(BarcodeFormat.QR_CODE));
@@ -218,18 +370,59 @@ public class QrCodeUtil {
         return result.getText();
     }
     
-    private String decodeWithGlobalHistogramBinarizer(BufferedImage image, GlobalHistogramBinarizer binarizer) throws NotFoundException {
-        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
-        hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
-        hints.put(DecodeHintType.POSSIBLE_FORMATS, List.of(BarcodeFormat.QR_CODE));
+    /**
+     * Same conversion as ZXing's BufferedImageLuminanceSource, written into a caller-supplied buffer.
+     */
+    private void toLuminance(BufferedImage image, byte[] luminance) {
+        int width = image.getWidth();
+        int height = image.getHeight();
         
-        BinaryBitmap bitmap = new BinaryBitmap(binarizer);
-        Result result = new MultiFormatReader().decode(bitmap, hints);
-        return result.getText();
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            image.getRaster().getDataElements(0, 0, width, height, luminance);
+            return;
+        }
+        
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int pixel = row[x];
+                if ((pixel & 0xFF000000) == 0) {
+                    // Fully transparent pixels are treated as white
+                    luminance[offset + x] = (byte) 0xFF;
+                } else {
+                    luminance[offset + x] = (byte) ((306 * ((pixel >> 16) & 0xFF)
+                            + 601 * ((pixel >> 8) & 0xFF)
+                            + 117 * (pixel & 0xFF)
+                            + 0x200) >> 10);
+                }
+            }
+        }
+    }
+    
+    private void rotateLuminance(byte[] source, int width, int height, int degrees, byte[] target) {
+        for (int y = 0; y < height; y++) {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                byte value = source[offset + x];
+                switch (degrees) {
+                    case 90:
+                        target[x * height + (height - 1 - y)] = value;
+                        break;
+                    case 180:
+                        target[(height - 1 - y) * width + (width - 1 - x)] = value;
+                        break;
+                    default:
+                        target[(width - 1 - x) * height + y] = value;
+                        break;
+                }
+            }
+        }
     }
     
     private BufferedImage enhanceContrast(BufferedImage original) {
-        BufferedImage enhanced = new BufferedImage(
+        BufferedImage enhanced = imageBufferPool.acquireImage(
                 original.getWidth(), 
                 original.getHeight(),
                 BufferedImage.TYPE_INT_RGB);
@@ -239,19 +432,16 @@ public class QrCodeUtil {
         g2d.dispose();
         
         // Apply contrast enhancement
-        for (int x = 0; x < enhanced.getWidth(); x++) {
-            for (int y = 0; y < enhanced.getHeight(); y++) {
-                Color color = new Color(enhanced.getRGB(x, y));
-                int red = color.getRed();
-                int green = color.getGreen();
-                int blue = color.getBlue();
+        for (int y = 0; y < enhanced.getHeight(); y++) {
+            for (int x = 0; x < enhanced.getWidth(); x++) {
+                int rgb = enhanced.getRGB(x, y);
                 
                 // Simple contrast enhancement
-                red = Math.min(255, Math.max(0, (red - 128) * 2 + 128));
-                green = Math.min(255, Math.max(0, (green - 128) * 2 + 128));
-                blue = Math.min(255, Math.max(0, (blue - 128) * 2 + 128));
+                int red = Math.min(255, Math.max(0, (((rgb >> 16) & 0xFF) - 128) * 2 + 128));
+                int green = Math.min(255, Math.max(0, (((rgb >> 8) & 0xFF) - 128) * 2 + 128));
+                int blue = Math.min(255, Math.max(0, ((rgb & 0xFF) - 128) * 2 + 128));
                 
-                enhanced.setRGB(x, y, new Color(red, green, blue).getRGB());
+                enhanced.setRGB(x, y, 0xFF000000 | (red << 16) | (green << 8) | blue);
             }
         }
         
@@ -259,7 +449,7 @@ public class QrCodeUtil {
     }
     
     private BufferedImage convertToGrayscale(BufferedImage original) {
-        BufferedImage grayscale = new BufferedImage(
+        BufferedImage grayscale = imageBufferPool.acquireImage(
                 original.getWidth(), 
                 original.getHeight(),
                 BufferedImage.TYPE_BYTE_GRAY);
@@ -272,19 +462,15 @@ public class QrCodeUtil {
     }
     
     private BufferedImage invertColors(BufferedImage original) {
-        BufferedImage inverted = new BufferedImage(
+        BufferedImage inverted = imageBufferPool.acquireImage(
                 original.getWidth(), 
                 original.getHeight(),
                 BufferedImage.TYPE_INT_RGB);
         
-        for (int x = 0; x < original.getWidth(); x++) {
-            for (int y = 0; y < original.getHeight(); y++) {
-                Color color = new Color(original.getRGB(x, y));
-                int red = 255 - color.getRed();
-                int green = 255 - color.getGreen();
-                int blue = 255 - color.getBlue();
-                
-                inverted.setRGB(x, y, new Color(red, green, blue).getRGB());
+        for (int y = 0; y < original.getHeight(); y++) {
+            for (int x = 0; x < original.getWidth(); x++) {
+                // Inverting the low 24 bits flips each channel; alpha is forced to opaque
+                inverted.setRGB(x, y, 0xFF000000 | (~original.getRGB(x, y) & 0x00FFFFFF));
             }
         }
         
@@ -295,30 +481,11 @@ public class QrCodeUtil {
         int newWidth = (int) (original.getWidth() * scale);
         int newHeight = (int) (original.getHeight() * scale);
         
-        BufferedImage scaled = new BufferedImage(newWidth, newHeight, original.getType());
+        BufferedImage scaled = imageBufferPool.acquireImage(newWidth, newHeight, original.getType());
         Graphics2D g2d = scaled.createGraphics();
         g2d.drawImage(original, 0, 0, newWidth, newHeight, null);
         g2d.dispose();
         
         return scaled;
     }
-    
-    private BufferedImage rotateImage(BufferedImage original, int degrees) {
-        double radians = Math.toRadians(degrees);
-        double sin = Math.abs(Math.sin(radians));
-        double cos = Math.abs(Math.cos(radians));
-        
-        int newWidth = (int) Math.floor(original.getWidth() * cos + original.getHeight() * sin);
-        int newHeight = (int) Math.floor(original.getHeight() * cos + original.getWidth() * sin);
-        
-        BufferedImage rotated = new BufferedImage(newWidth, newHeight, original.getType());
-        Graphics2D g2d = rotated.createGraphics();
-        
-        g2d.translate((newWidth - original.getWidth()) / 2, (newHeight - original.getHeight()) / 2);
-        g2d.rotate(radians, original.getWidth() / 2, original.getHeight() / 2);
-        g2d.drawRenderedImage(original, null);
-        g2d.dispose();
-        
-        return rotated;
-    }
 }
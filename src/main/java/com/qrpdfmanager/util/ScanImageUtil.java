@@ -0,0 +1,263 @@
+package com.qrpdfmanager.util;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.NodeList;
+
+import com.qrpdfmanager.exception.FileStorageException;
+
+/**
+ * Reads scanned pages straight from image files: multi-page TIFF, single PNG/JPEG/TIFF images and
+ * ZIP archives of those. Frames are decoded one at a time, so only the current page is held in memory.
+ */
+@Component
+public class ScanImageUtil {
+
+    // Used for the page size when a scan carries no resolution metadata
+    private static final float DEFAULT_SCAN_DPI = 300;
+    // Stamped QR code (200pt) plus its 40pt margin, with another 40pt of slack for skewed or shifted scans
+    private static final float QR_REGION_POINTS = 280;
+
+    @Autowired
+    private ImageBufferPool imageBufferPool;
+
+    /**
+     * Passes every frame to the consumer in scan order. Archive entries are visited in name order,
+     * which is the order scanners number their output files in.
+     */
+    public void readFrames(File scanFile, BiConsumer<Integer, ScanFrame> frameConsumer) {
+        int[] frameIndex = new int[1];
+        Consumer<ScanFrame> indexingConsumer = frame -> frameConsumer.accept(frameIndex[0]++, frame);
+
+        try {
+            if (getExtension(scanFile.getName()).equals("zip")) {
+                readArchive(scanFile, indexingConsumer);
+            } else if (isJpeg(scanFile.getName())) {
+                readJpeg(Files.readAllBytes(scanFile.toPath()), indexingConsumer);
+            } else {
+                try (ImageInputStream input = ImageIO.createImageInputStream(scanFile)) {
+                    readImageFrames(input, scanFile.getName(), indexingConsumer);
+                }
+            }
+        } catch (IOException e) {
+            throw new FileStorageException("Failed to read scan " + scanFile.getName(), e);
+        }
+    }
+
+    /**
+     * Returns a pooled grayscale copy of the region where the QR code was stamped, or of the whole
+     * frame when the scan resolution is unknown. Release it to the pool after decoding.
+     */
+    public BufferedImage extractQrCodeRegion(ScanFrame frame) {
+        BufferedImage image = frame.getImage();
+        int x = 0;
+        int y = 0;
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        if (frame.hasResolution()) {
+            // Image coordinates start top-left, the stamp sits in the bottom-right corner
+            width = Math.min(width, Math.round(QR_REGION_POINTS * frame.getDpiX() / 72));
+            height = Math.min(height, Math.round(QR_REGION_POINTS * frame.getDpiY() / 72));
+            x = image.getWidth() - width;
+            y = image.getHeight() - height;
+        }
+
+        // Grayscale keeps the decode cascade on its fast path whatever the scan's color model is
+        BufferedImage region = imageBufferPool.acquireImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = region.createGraphics();
+        try {
+            graphics.drawImage(image, -x, -y, null);
+        } finally {
+            graphics.dispose();
+        }
+        return region;
+    }
+
+    public boolean isSupportedScan(String fileName) {
+        switch (getExtension(fileName)) {
+            case "tif":
+            case "tiff":
+            case "png":
+            case "jpg":
+            case "jpeg":
+            case "zip":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void readArchive(File archiveFile, Consumer<ScanFrame> frameConsumer) throws IOException {
+        try (ZipFile zipFile = new ZipFile(archiveFile)) {
+            List<? extends ZipEntry> entries = zipFile.stream()
+                    .filter(entry -> !entry.isDirectory() && isSupportedScan(entry.getName())
+                            && !getExtension(entry.getName()).equals("zip"))
+                    .sorted(Comparator.comparing(ZipEntry::getName))
+                    .collect(Collectors.toList());
+
+            for (ZipEntry entry : entries) {
+                byte[] entryBytes;
+                try (InputStream entryStream = zipFile.getInputStream(entry)) {
+                    entryBytes = entryStream.readAllBytes();
+                }
+
+                if (isJpeg(entry.getName())) {
+                    readJpeg(entryBytes, frameConsumer);
+                } else {
+                    try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(entryBytes))) {
+                        readImageFrames(input, entry.getName(), frameConsumer);
+                    }
+                }
+            }
+        }
+    }
+
+    private void readJpeg(byte[] jpegBytes, Consumer<ScanFrame> frameConsumer) throws IOException {
+        // Keep the original bytes so the page can embed them as they are instead of re-encoding the pixels
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(jpegBytes))) {
+            ImageReader reader = getReader(input, "JPEG image");
+            try {
+                reader.setInput(input, true, false);
+                BufferedImage image = reader.read(0);
+                float[] dpi = readResolution(reader.getImageMetadata(0));
+                frameConsumer.accept(new ScanFrame(image, dpi[0], dpi[1], jpegBytes));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private void readImageFrames(ImageInputStream input, String name, Consumer<ScanFrame> frameConsumer)
+            throws IOException {
+        ImageReader reader = getReader(input, name);
+        try {
+            // Not seeking backwards lets the reader discard frames that have already been handed out
+            reader.setInput(input, true, false);
+            for (int i = 0; ; i++) {
+                BufferedImage image;
+                try {
+                    image = reader.read(i);
+                } catch (IndexOutOfBoundsException e) {
+                    // The frame count of a TIFF is only known after walking its whole directory chain
+                    break;
+                }
+
+                float[] dpi = readResolution(reader.getImageMetadata(i));
+                frameConsumer.accept(new ScanFrame(image, dpi[0], dpi[1], null));
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private ImageReader getReader(ImageInputStream input, String name) {
+        Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+        if (readers == null || !readers.hasNext()) {
+            throw new FileStorageException("Unsupported image format: " + name);
+        }
+        return readers.next();
+    }
+
+    /**
+     * Reads the resolution from the format-neutral metadata tree, which reports it in millimetres per
+     * pixel for TIFF, PNG and JFIF alike. Returns zeros when the scan has none.
+     */
+    private float[] readResolution(IIOMetadata metadata) {
+        float[] dpi = new float[2];
+        if (metadata == null || !metadata.isStandardMetadataFormatSupported()) {
+            return dpi;
+        }
+
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName);
+        dpi[0] = readPixelSize(root, "HorizontalPixelSize");
+        dpi[1] = readPixelSize(root, "VerticalPixelSize");
+        return dpi;
+    }
+
+    private float readPixelSize(IIOMetadataNode root, String nodeName) {
+        NodeList nodes = root.getElementsByTagName(nodeName);
+        if (nodes.getLength() == 0) {
+            return 0;
+        }
+
+        try {
+            float millimetresPerPixel = Float.parseFloat(((IIOMetadataNode) nodes.item(0)).getAttribute("value"));
+            return millimetresPerPixel > 0 ? 25.4f / millimetresPerPixel : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private boolean isJpeg(String fileName) {
+        String extension = getExtension(fileName);
+        return extension.equals("jpg") || extension.equals("jpeg");
+    }
+
+    private String getExtension(String fileName) {
+        int dotIndex = fileName.lastIndexOf('.');
+        return dotIndex == -1 ? "" : fileName.substring(dotIndex + 1).toLowerCase(Locale.ROOT);
+    }
+
+
+    /**
+     * One scanned page with its resolution, and the original bytes when it was a JPEG file.
+     */
+    public static final class ScanFrame {
+        private final BufferedImage image;
+        private final float dpiX;
+        private final float dpiY;
+        private final byte[] jpegBytes;
+
+        private ScanFrame(BufferedImage image, float dpiX, float dpiY, byte[] jpegBytes) {
+            this.image = image;
+            this.dpiX = dpiX;
+            this.dpiY = dpiY;
+            this.jpegBytes = jpegBytes;
+        }
+
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        public boolean hasResolution() {
+            return dpiX > 0 && dpiY > 0;
+        }
+
+        public float getDpiX() {
+            return hasResolution() ? dpiX : DEFAULT_SCAN_DPI;
+        }
+
+        public float getDpiY() {
+            return hasResolution() ? dpiY : DEFAULT_SCAN_DPI;
+        }
+
+        public byte[] getJpegBytes() {
+            return jpegBytes;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.qrpdfmanager.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.qrpdfmanager.config.SchedulingConfig;
+import com.qrpdfmanager.exception.FileStorageException;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class FairPageSchedulerTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<Thread> threads = new ArrayList<>();
+
+    @AfterEach
+    void stopThreads() throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.interrupt();
+            thread.join(TIMEOUT_MILLIS);
+        }
+    }
+
+    @Test
+    void interleavesWaitingPagesByWeight() throws Exception {
+        FairPageScheduler scheduler = createScheduler(1, 0, Map.of("light", 1, "heavy", 3));
+        CountDownLatch blockerRelease = new CountDownLatch(1);
+        startPage(scheduler, "default", blockerRelease::await, new AtomicReference<>());
+        waitUntil(() -> activePages("default") == 1);
+
+        List<String> grantOrder = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 4; i++) {
+            startPage(scheduler, "light", () -> grantOrder.add("light"), new AtomicReference<>());
+            startPage(scheduler, "heavy", () -> grantOrder.add("heavy"), new AtomicReference<>());
+        }
+        waitUntil(() -> scheduler.getQueueDepth() == 8);
+
+        blockerRelease.countDown();
+        waitUntil(() -> grantOrder.size() == 8);
+
+        // Tags: light 0, 1, 2, 3 and heavy 0, 1/3, 2/3, 1, so heavy takes three of the first four slots
+        assertEquals(3, Collections.frequency(grantOrder.subList(0, 4), "heavy"));
+        assertEquals(4, Collections.frequency(grantOrder, "light"));
+    }
+
+    @Test
+    void capsPagesPerTenant() throws Exception {
+        FairPageScheduler scheduler = createScheduler(4, 2, Map.of());
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        for (int i = 0; i < 4; i++) {
+            startPage(scheduler, "default", () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    release.await();
+                } finally {
+                    running.decrementAndGet();
+                }
+            }, new AtomicReference<>());
+        }
+        waitUntil(() -> running.get() == 2 && scheduler.getQueueDepth() == 2);
+
+        // The capped tenant leaves global slots free for everyone else
+        CountDownLatch otherTenantRan = new CountDownLatch(1);
+        startPage(scheduler, "other", otherTenantRan::countDown, new AtomicReference<>());
+        assertTrue(otherTenantRan.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(2, running.get());
+
+        release.countDown();
+        waitUntil(() -> scheduler.getQueueDepth() == 0 && running.get() == 0);
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    void capsPagesAcrossTenants() throws Exception {
+        FairPageScheduler scheduler = createScheduler(2, 0, Map.of("a", 1, "b", 1, "c", 1));
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        for (String tenant : List.of("a", "b", "c", "a", "b", "c")) {
+            startPage(scheduler, tenant, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    release.await();
+                } finally {
+                    running.decrementAndGet();
+                }
+            }, new AtomicReference<>());
+        }
+        waitUntil(() -> running.get() == 2 && scheduler.getQueueDepth() == 4);
+
+        release.countDown();
+        waitUntil(() -> scheduler.getQueueDepth() == 0 && running.get() == 0);
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    void handsOnSlotGrantedWhileInterrupted() throws Exception {
+        FairPageScheduler scheduler = createScheduler(1, 0, Map.of());
+        CountDownLatch blockerRelease = new CountDownLatch(1);
+        Thread blocker = startPage(scheduler, "default", blockerRelease::await, new AtomicReference<>());
+        waitUntil(() -> activePages("default") == 1);
+
+        AtomicBoolean interruptedPageRan = new AtomicBoolean();
+        AtomicReference<Throwable> interruptedFailure = new AtomicReference<>();
+        Thread interrupted = startPage(scheduler, "default", () -> interruptedPageRan.set(true), interruptedFailure);
+        waitUntil(() -> scheduler.getQueueDepth() == 1);
+
+        CountDownLatch nextPageRan = new CountDownLatch(1);
+        startPage(scheduler, "default", nextPageRan::countDown, new AtomicReference<>());
+        waitUntil(() -> scheduler.getQueueDepth() == 2);
+
+        // Holding the lock lines both up: the blocker's release grants the slot to the waiting page
+        // after that page has already been interrupted, so it must pass the slot on
+        scheduler.lock.lock();
+        try {
+            blockerRelease.countDown();
+            waitUntil(() -> scheduler.lock.hasQueuedThread(blocker));
+            interrupted.interrupt();
+            waitUntil(() -> scheduler.lock.hasQueuedThread(interrupted));
+        } finally {
+            scheduler.lock.unlock();
+        }
+
+        assertTrue(nextPageRan.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        interrupted.join(TIMEOUT_MILLIS);
+        assertFalse(interruptedPageRan.get());
+        assertInstanceOf(FileStorageException.class, interruptedFailure.get());
+        waitUntil(() -> activePages("default") == 0);
+    }
+
+    @Test
+    void schedulesUnknownTenantsAsDefault() {
+        SchedulingConfig config = new SchedulingConfig();
+        config.setTenants(Set.of("acme"));
+        config.setTenantWeights(Map.of("premium", 4));
+        FairPageScheduler scheduler = new FairPageScheduler(config, meterRegistry);
+
+        assertEquals("acme", scheduler.resolveTenant("acme"));
+        assertEquals("premium", scheduler.resolveTenant("premium"));
+        assertEquals(FairPageScheduler.DEFAULT_TENANT, scheduler.resolveTenant("rotated-1"));
+        assertEquals(FairPageScheduler.DEFAULT_TENANT, scheduler.resolveTenant(null));
+
+        scheduler.runPage("rotated-1", () -> { });
+        scheduler.runPage("rotated-2", () -> { });
+        assertNull(meterRegistry.find("qrpdf.scheduler.wait").tag("tenant", "rotated-1").timer());
+        assertEquals(2, meterRegistry.get("qrpdf.scheduler.wait").tag("tenant", "default").timer().count());
+    }
+
+    private FairPageScheduler createScheduler(int maxConcurrentPages, int maxConcurrentPagesPerTenant,
+            Map<String, Integer> tenantWeights) {
+        SchedulingConfig config = new SchedulingConfig();
+        config.setMaxConcurrentPages(maxConcurrentPages);
+        config.setMaxConcurrentPagesPerTenant(maxConcurrentPagesPerTenant);
+        config.setTenants(Set.of("other"));
+        config.setTenantWeights(tenantWeights);
+        return new FairPageScheduler(config, meterRegistry);
+    }
+
+    private Thread startPage(FairPageScheduler scheduler, String tenantId, Page page, AtomicReference<Throwable> failure) {
+        Thread thread = new Thread(() -> {
+            try {
+                scheduler.runPage(tenantId, () -> {
+                    try {
+                        page.run();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (RuntimeException e) {
+                failure.set(e);
+            }
+        }, "page-" + tenantId + "-" + threads.size());
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+        return thread;
+    }
+
+    private double activePages(String tenantId) {
+        Gauge gauge = meterRegistry.find("qrpdf.scheduler.active.pages").tag("tenant", tenantId).gauge();
+        return gauge != null ? gauge.value() : 0;
+    }
+
+    private void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the scheduler");
+            Thread.sleep(5);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Page {
+        void run() throws InterruptedException;
+    }
+}